@@ -0,0 +1,23 @@
+package com.github.rmannibucau.mylang.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Raw call of the intercepted methods, the reference for the interceptor overheads.
+ */
+@State(Scope.Benchmark)
+public class BaselineBenchmark {
+    private final BenchmarkBean bean = new BenchmarkBean();
+
+    @Benchmark
+    public int raw() {
+        return bean.raw();
+    }
+
+    @Benchmark
+    public int write() {
+        return bean.write();
+    }
+}
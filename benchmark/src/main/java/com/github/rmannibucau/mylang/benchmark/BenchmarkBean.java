@@ -0,0 +1,62 @@
+package com.github.rmannibucau.mylang.benchmark;
+
+import com.github.rmannibucau.mylang.future.api.Futureable;
+import com.github.rmannibucau.mylang.lock.api.Locked;
+import com.github.rmannibucau.mylang.lock.api.Throttled;
+import com.github.rmannibucau.mylang.lock.api.Throttling;
+
+import java.util.concurrent.CompletableFuture;
+
+import static com.github.rmannibucau.mylang.lock.api.Locked.Operation.WRITE;
+
+@Throttling(permits = 64)
+public class BenchmarkBean {
+    // values stay in the Integer cache so boxing doesn't pollute the allocation rate
+    private static final int VALUE_MASK = 127;
+
+    private volatile int value;
+
+    public int raw() {
+        return value;
+    }
+
+    @Locked
+    public int read() {
+        return value;
+    }
+
+    @Locked(timeout = 1000)
+    public int readWithTimeout() {
+        return value;
+    }
+
+    @Locked(operation = WRITE)
+    public int write() {
+        return value = (value + 1) & VALUE_MASK;
+    }
+
+    @Locked(operation = WRITE, timeout = 1000)
+    public int writeWithTimeout() {
+        return value = (value + 1) & VALUE_MASK;
+    }
+
+    @Throttled
+    public int throttled() {
+        return value;
+    }
+
+    @Throttled(timeout = 1000)
+    public int throttledWithTimeout() {
+        return value;
+    }
+
+    @Futureable("benchmark")
+    public CompletableFuture<Integer> future() {
+        return CompletableFuture.completedFuture(value);
+    }
+
+    @Futureable(value = "benchmark", compose = true)
+    public CompletableFuture<Integer> composedFuture() {
+        return CompletableFuture.completedFuture(value);
+    }
+}
@@ -0,0 +1,41 @@
+package com.github.rmannibucau.mylang.benchmark;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs all benchmarks uncontended then with 2, 8 and 32 threads.
+ * An optional first argument is a regex filtering the benchmarks to run.
+ * The GC profiler is enabled, gc.alloc.rate.norm is the number of bytes allocated per call
+ * and must stay at 0 for the lock and throttling benchmarks.
+ */
+public final class BenchmarkRunner {
+    private BenchmarkRunner() {
+        // no-op
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        final String include = args.length > 0 ? args[0] : BenchmarkRunner.class.getPackage().getName() + ".*Benchmark.*";
+        for (final int threads : new int[]{1, 2, 8, 32}) {
+            new Runner(new OptionsBuilder()
+                .include(include)
+                .threads(threads)
+                .mode(Mode.AverageTime)
+                .timeUnit(TimeUnit.NANOSECONDS)
+                .forks(1)
+                .addProfiler(GCProfiler.class)
+                .warmupIterations(5)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(1))
+                .build())
+                .run();
+        }
+    }
+}
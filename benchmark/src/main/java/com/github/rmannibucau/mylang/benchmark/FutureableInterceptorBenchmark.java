@@ -0,0 +1,55 @@
+package com.github.rmannibucau.mylang.benchmark;
+
+import com.github.rmannibucau.mylang.future.api.FutureableInterceptor;
+import com.github.rmannibucau.mylang.metrics.api.MetricsRegistry;
+import com.github.rmannibucau.mylang.thread.api.ThreadPoolManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import javax.enterprise.event.Event;
+import javax.interceptor.InvocationContext;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Measures a full round trip: submission to the pool and completion of the returned future.
+ */
+@State(Scope.Benchmark)
+public class FutureableInterceptorBenchmark {
+    @Param({"false", "true"})
+    private boolean compose;
+
+    private ThreadPoolManager manager;
+    private FutureableInterceptor interceptor;
+    private InvocationContext future;
+
+    @Setup
+    public void setup() {
+        final Event<?> noEvent = Event.class.cast(Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Event.class}, (p, m, a) -> null));
+        manager = Wiring.inject(new ThreadPoolManager(), noEvent, new MetricsRegistry());
+        Wiring.call(manager, "init", new Object());
+        final Object configs = Wiring.inject(
+            Wiring.newInstance("com.github.rmannibucau.mylang.future.api.FutureableInterceptor$Configs"),
+            manager, Wiring.beanManager(), Wiring.extension(BenchmarkBean.class));
+        Wiring.call(configs, "init", new Object());
+        interceptor = Wiring.inject(new FutureableInterceptor(), configs);
+
+        final BenchmarkBean bean = new BenchmarkBean();
+        future = new SimpleInvocationContext(
+            bean, Wiring.method(BenchmarkBean.class, compose ? "composedFuture" : "future"), new Object[0], bean::future);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Wiring.call(manager, "destroy");
+    }
+
+    @Benchmark
+    public Object future() throws Exception {
+        return CompletableFuture.class.cast(interceptor.invoke(future)).join();
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.rmannibucau.mylang.benchmark;
+
+import com.github.rmannibucau.mylang.lock.api.LockedInterceptor;
+import com.github.rmannibucau.mylang.metrics.api.MetricsRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.interceptor.InvocationContext;
+
+@State(Scope.Benchmark)
+public class LockedInterceptorBenchmark {
+    @Param({"false", "true"})
+    private boolean timeout;
+
+    private LockedInterceptor interceptor;
+    private InvocationContext read;
+    private InvocationContext write;
+
+    @Setup
+    public void setup() {
+        final Object locks = Wiring.inject(
+            Wiring.newInstance("com.github.rmannibucau.mylang.lock.api.LockedInterceptor$Locks"),
+            Wiring.beanManager(), new MetricsRegistry(), Wiring.extension(BenchmarkBean.class));
+        Wiring.call(locks, "init", new Object());
+        interceptor = Wiring.inject(new LockedInterceptor(), locks);
+
+        final BenchmarkBean bean = new BenchmarkBean();
+        read = new SimpleInvocationContext(bean, Wiring.method(BenchmarkBean.class, timeout ? "readWithTimeout" : "read"), new Object[0], bean::read);
+        write = new SimpleInvocationContext(bean, Wiring.method(BenchmarkBean.class, timeout ? "writeWithTimeout" : "write"), new Object[0], bean::write);
+    }
+
+    @Benchmark
+    public Object read() throws Exception {
+        return interceptor.invoke(read);
+    }
+
+    @Benchmark
+    public Object write() throws Exception {
+        return interceptor.invoke(write);
+    }
+}
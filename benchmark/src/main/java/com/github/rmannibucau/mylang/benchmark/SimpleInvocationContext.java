@@ -0,0 +1,64 @@
+package com.github.rmannibucau.mylang.benchmark;
+
+import javax.interceptor.InvocationContext;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Invocation context calling directly the target (no reflection) to only measure the interceptor.
+ */
+class SimpleInvocationContext implements InvocationContext {
+    private final Object target;
+    private final Method method;
+    private final Callable<?> invocation;
+    private Object[] parameters;
+
+    SimpleInvocationContext(final Object target, final Method method, final Object[] parameters, final Callable<?> invocation) {
+        this.target = target;
+        this.method = method;
+        this.parameters = parameters;
+        this.invocation = invocation;
+    }
+
+    @Override
+    public Object getTarget() {
+        return target;
+    }
+
+    @Override
+    public Object getTimer() {
+        return null;
+    }
+
+    @Override
+    public Method getMethod() {
+        return method;
+    }
+
+    @Override
+    public Constructor<?> getConstructor() {
+        return null;
+    }
+
+    @Override
+    public Object[] getParameters() {
+        return parameters;
+    }
+
+    @Override
+    public void setParameters(final Object[] params) {
+        this.parameters = params;
+    }
+
+    @Override
+    public Map<String, Object> getContextData() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object proceed() throws Exception {
+        return invocation.call();
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.rmannibucau.mylang.benchmark;
+
+import com.github.rmannibucau.mylang.lock.api.ThrottledInterceptor;
+import com.github.rmannibucau.mylang.metrics.api.MetricsRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.interceptor.InvocationContext;
+
+@State(Scope.Benchmark)
+public class ThrottledInterceptorBenchmark {
+    @Param({"false", "true"})
+    private boolean timeout;
+
+    private ThrottledInterceptor interceptor;
+    private InvocationContext throttled;
+
+    @Setup
+    public void setup() {
+        final Object cache = Wiring.inject(
+            Wiring.newInstance("com.github.rmannibucau.mylang.lock.api.ThrottledInterceptor$LocalCache"),
+            Wiring.beanManager(), new MetricsRegistry(), Wiring.extension(BenchmarkBean.class));
+        Wiring.call(cache, "init", new Object());
+        interceptor = Wiring.inject(new ThrottledInterceptor(), cache);
+
+        final BenchmarkBean bean = new BenchmarkBean();
+        throttled = new SimpleInvocationContext(
+            bean, Wiring.method(BenchmarkBean.class, timeout ? "throttledWithTimeout" : "throttled"), new Object[0], bean::throttled);
+    }
+
+    @Benchmark
+    public Object throttled() throws Exception {
+        return interceptor.invoke(throttled);
+    }
+}
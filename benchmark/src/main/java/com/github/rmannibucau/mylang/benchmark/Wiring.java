@@ -0,0 +1,158 @@
+package com.github.rmannibucau.mylang.benchmark;
+
+import com.github.rmannibucau.mylang.cdi.api.MetadataExtension;
+
+import javax.enterprise.inject.spi.AnnotatedMethod;
+import javax.enterprise.inject.spi.AnnotatedType;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.enterprise.inject.spi.ProcessAnnotatedType;
+import javax.inject.Inject;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * Wires the interceptors without a container so benchmarks only measure the interceptor logic
+ * (no CDI proxy, no interceptor chain).
+ */
+final class Wiring {
+    private Wiring() {
+        // no-op
+    }
+
+    static Object newInstance(final String className) {
+        try {
+            final Constructor<?> constructor = Wiring.class.getClassLoader().loadClass(className).getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor.newInstance();
+        } catch (final Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Sets the @Inject fields of the instance with the first matching dependency.
+     */
+    static <T> T inject(final T instance, final Object... dependencies) {
+        Class<?> current = instance.getClass();
+        while (current != null && current != Object.class) {
+            for (final Field field : current.getDeclaredFields()) {
+                if (!field.isAnnotationPresent(Inject.class)) {
+                    continue;
+                }
+                Stream.of(dependencies).filter(field.getType()::isInstance).findFirst().ifPresent(dep -> {
+                    field.setAccessible(true);
+                    try {
+                        field.set(instance, dep);
+                    } catch (final IllegalAccessException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+            }
+            current = current.getSuperclass();
+        }
+        return instance;
+    }
+
+    static void call(final Object instance, final String method, final Object... args) {
+        try {
+            final Method m = Stream.of(instance.getClass().getDeclaredMethods())
+                .filter(it -> it.getName().equals(method) && it.getParameterCount() == args.length)
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("No method " + method));
+            m.setAccessible(true);
+            m.invoke(instance, args);
+        } catch (final Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Method method(final Class<?> type, final String name) {
+        try {
+            return type.getMethod(name);
+        } catch (final NoSuchMethodException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * @return a BeanManager only supporting createAnnotatedType() (based on reflection).
+     */
+    static BeanManager beanManager() {
+        return BeanManager.class.cast(Proxy.newProxyInstance(Wiring.class.getClassLoader(), new Class<?>[]{BeanManager.class}, (proxy, method, args) -> {
+            if ("createAnnotatedType".equals(method.getName())) {
+                return annotatedType(Class.class.cast(args[0]));
+            }
+            throw new UnsupportedOperationException(method.toGenericString());
+        }));
+    }
+
+    /**
+     * @return an extension which discovered the given beans as a container would do.
+     */
+    static MetadataExtension extension(final Class<?>... beans) {
+        final MetadataExtension extension = new MetadataExtension();
+        Stream.of(beans).forEach(bean -> call(extension, "collect", Proxy.newProxyInstance(Wiring.class.getClassLoader(), new Class<?>[]{ProcessAnnotatedType.class}, (proxy, method, args) -> {
+            if ("getAnnotatedType".equals(method.getName())) {
+                return annotatedType(bean);
+            }
+            throw new UnsupportedOperationException(method.toGenericString());
+        })));
+        return extension;
+    }
+
+    private static AnnotatedType<?> annotatedType(final Class<?> type) {
+        final Set<AnnotatedMethod<?>> methods = new HashSet<>();
+        final AnnotatedType<?> annotatedType = AnnotatedType.class.cast(Proxy.newProxyInstance(Wiring.class.getClassLoader(), new Class<?>[]{AnnotatedType.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getJavaClass":
+                case "getBaseType":
+                    return type;
+                case "getMethods":
+                    return methods;
+                default:
+                    return annotated(type.getAnnotations(), method, args);
+            }
+        }));
+        methods.addAll(Stream.of(type.getMethods()).map(m -> (AnnotatedMethod<?>) AnnotatedMethod.class.cast(Proxy.newProxyInstance(Wiring.class.getClassLoader(), new Class<?>[]{AnnotatedMethod.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getJavaMember":
+                    return m;
+                case "getDeclaringType":
+                    return annotatedType;
+                case "getBaseType":
+                    return m.getGenericReturnType();
+                default:
+                    return annotated(m.getAnnotations(), method, args);
+            }
+        }))).collect(toSet()));
+        return annotatedType;
+    }
+
+    private static Object annotated(final Annotation[] annotations, final Method method, final Object[] args) {
+        switch (method.getName()) {
+            case "getAnnotation":
+                return Stream.of(annotations).filter(Class.class.cast(args[0])::isInstance).findFirst().orElse(null);
+            case "isAnnotationPresent":
+                return Stream.of(annotations).anyMatch(Class.class.cast(args[0])::isInstance);
+            case "getAnnotations":
+                return new HashSet<>(asList(annotations));
+            case "hashCode":
+                return System.identityHashCode(annotations);
+            case "equals":
+                return false;
+            case "toString":
+                return "Annotated" + asList(annotations);
+            default:
+                throw new UnsupportedOperationException(method.toGenericString());
+        }
+    }
+}
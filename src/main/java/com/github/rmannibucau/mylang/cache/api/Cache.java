@@ -0,0 +1,17 @@
+package com.github.rmannibucau.mylang.cache.api;
+
+public interface Cache {
+    /**
+     * @param key the entry key.
+     * @return the value or null if missing or expired.
+     */
+    Object get(Object key);
+
+    void put(Object key, Object value);
+
+    void remove(Object key);
+
+    void clear();
+
+    long size();
+}
@@ -0,0 +1,8 @@
+package com.github.rmannibucau.mylang.cache.api;
+
+import javax.enterprise.inject.spi.AnnotatedMethod;
+import java.util.concurrent.TimeUnit;
+
+public interface CacheFactory {
+    Cache newCache(AnnotatedMethod<?> method, String name, int maxSize, long ttl, TimeUnit ttlUnit, boolean offHeap);
+}
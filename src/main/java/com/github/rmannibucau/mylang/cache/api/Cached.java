@@ -0,0 +1,55 @@
+package com.github.rmannibucau.mylang.cache.api;
+
+import javax.enterprise.util.Nonbinding;
+import javax.interceptor.InterceptorBinding;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Memoizes the results of the method by parameters, exceptions are not cached.
+ * A returned CompletionStage is cached once completed successfully, concurrent calls before that all invoke the method.
+ * Its value is cached and each hit gets a new completed CompletableFuture, the method returns a CompletionStage
+ * or a CompletableFuture, the deployment fails for other CompletionStage types.
+ */
+@InterceptorBinding
+@Retention(RUNTIME)
+@Target({TYPE, METHOD})
+public @interface Cached {
+    /**
+     * @return cache name, default to the bean class name. Methods using the same name share the cache
+     * and must use the same maxSize, ttl and offHeap, the deployment fails otherwise.
+     */
+    @Nonbinding
+    String name() default "";
+
+    /**
+     * @return max number of entries of the cache.
+     */
+    @Nonbinding
+    int maxSize() default 1000;
+
+    /**
+     * @return time to live of an entry after its write, 0 means entries don't expire.
+     */
+    @Nonbinding
+    long ttl() default 0L;
+
+    @Nonbinding
+    TimeUnit ttlUnit() default TimeUnit.MILLISECONDS;
+
+    /**
+     * @return true to store the values serialized out of the heap, values must be Serializable.
+     * The deployment fails when the returned type (or the value type of a CompletionStage) is a class which is not,
+     * a value which can't be serialized is otherwise returned without being cached.
+     */
+    @Nonbinding
+    boolean offHeap() default false;
+
+    @Nonbinding
+    Class<? extends CacheFactory> factory() default CacheFactory.class;
+}
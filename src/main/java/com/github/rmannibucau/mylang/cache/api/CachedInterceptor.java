@@ -0,0 +1,204 @@
+package com.github.rmannibucau.mylang.cache.api;
+
+import com.github.rmannibucau.mylang.cdi.api.MetadataExtension;
+import com.github.rmannibucau.mylang.cdi.api.MetadataExtension.InterceptedMethod;
+import com.github.rmannibucau.mylang.cdi.api.MethodKey;
+import com.github.rmannibucau.mylang.cdi.api.MethodMetadata;
+import com.github.rmannibucau.mylang.metrics.api.CacheMetrics;
+import com.github.rmannibucau.mylang.metrics.api.MetricsRegistry;
+
+import javax.annotation.Priority;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.enterprise.inject.Typed;
+import javax.enterprise.inject.spi.AnnotatedMethod;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.inject.Inject;
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.Interceptor;
+import javax.interceptor.InvocationContext;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Optional.of;
+
+@Cached
+@Interceptor
+// before @Coalesced, @Locked and @Throttled, a hit doesn't need them
+@Priority(Interceptor.Priority.LIBRARY_BEFORE - 2)
+public class CachedInterceptor implements Serializable {
+    @Inject
+    private Caches caches;
+
+    @AroundInvoke
+    public Object invoke(final InvocationContext ic) throws Exception {
+        return caches.getOrCreateInvocation(ic.getMethod()).invoke(ic);
+    }
+
+    @ApplicationScoped
+    @Typed(Caches.class)
+    static class Caches implements CacheFactory {
+        private final ConcurrentMap<String, Definition> caches = new ConcurrentHashMap<>();
+        private final MethodMetadata<Invocation> invocations = new MethodMetadata<>(this::createInvocation);
+
+        @Inject
+        private BeanManager beanManager;
+
+        @Inject
+        private MetricsRegistry metrics;
+
+        @Inject
+        private MetadataExtension extension;
+
+        void init(@Observes @Initialized(ApplicationScoped.class) final Object start) {
+            invocations.init(extension, Cached.class);
+        }
+
+        Invocation getOrCreateInvocation(final Method method) {
+            return invocations.get(beanManager, method);
+        }
+
+        private Invocation createInvocation(final Method method, final InterceptedMethod interceptedMethod) {
+            final Cached cached = interceptedMethod.getAnnotation(Cached.class);
+            final String name = cached.name().isEmpty() ? method.getDeclaringClass().getName() : cached.name();
+            final CacheFactory factory = of(cached.factory()).filter(f -> f != CacheFactory.class)
+                .map(c -> CacheFactory.class.cast(beanManager.getReference(beanManager.resolve(beanManager.getBeans(c)), CacheFactory.class, null)))
+                .orElse(this);
+            final boolean stage = CompletionStage.class.isAssignableFrom(method.getReturnType());
+            if (stage && !method.getReturnType().isAssignableFrom(CompletableFuture.class)) {
+                throw new IllegalArgumentException("@Cached " + method + " should return a CompletionStage or CompletableFuture"
+                    + ", the cached value is returned in a new CompletableFuture: " + method.getReturnType().getName());
+            }
+            if (cached.offHeap()) {
+                final Class<?> valueType = stage ? getStageValueType(method.getGenericReturnType()) : method.getReturnType();
+                if (!valueType.isPrimitive() && !valueType.isInterface() && valueType != Object.class
+                        && !Serializable.class.isAssignableFrom(valueType)) {
+                    throw new IllegalArgumentException("@Cached(offHeap = true) " + method + " values should be Serializable: " + valueType.getName());
+                }
+            }
+            final Cache cache = factory.newCache(
+                interceptedMethod.getMethod(), name, cached.maxSize(), cached.ttl(), cached.ttlUnit(), cached.offHeap());
+            return new Invocation(cache, metrics.cache(name), stage, cached.offHeap());
+        }
+
+        private static Class<?> getStageValueType(final Type returnType) {
+            if (!ParameterizedType.class.isInstance(returnType)) {
+                return Object.class;
+            }
+            final Type value = ParameterizedType.class.cast(returnType).getActualTypeArguments()[0];
+            if (Class.class.isInstance(value)) {
+                return Class.class.cast(value);
+            }
+            if (ParameterizedType.class.isInstance(value)) {
+                return Class.class.cast(ParameterizedType.class.cast(value).getRawType());
+            }
+            return Object.class; // wildcard or variable, checked when caching
+        }
+
+        @Override
+        public Cache newCache(final AnnotatedMethod<?> method, final String name, final int maxSize,
+                              final long ttl, final TimeUnit ttlUnit, final boolean offHeap) {
+            final long ttlNanos = ttlUnit.toNanos(ttl);
+            final Definition definition = caches.computeIfAbsent(name, key -> new Definition(maxSize, ttlNanos, offHeap));
+            if (definition.maxSize != maxSize || definition.ttl != ttlNanos || definition.offHeap != offHeap) {
+                throw new IllegalArgumentException("Cache " + name + " of " + method.getJavaMember() + " is already defined with maxSize="
+                    + definition.maxSize + ", ttl=" + definition.ttl + "ns and offHeap=" + definition.offHeap
+                    + ", methods sharing a cache need the same configuration, set another name otherwise");
+            }
+            return definition.cache;
+        }
+    }
+
+    // the configuration is kept to reject a method sharing the cache with a different one
+    private static final class Definition {
+        private final int maxSize;
+        private final long ttl;
+        private final boolean offHeap;
+        private final Cache cache;
+
+        private Definition(final int maxSize, final long ttl, final boolean offHeap) {
+            this.maxSize = maxSize;
+            this.ttl = ttl;
+            this.offHeap = offHeap;
+            this.cache = new TinyLfuCache(maxSize, ttl, TimeUnit.NANOSECONDS, offHeap);
+        }
+    }
+
+    private static final class Invocation {
+        private final Cache cache;
+        private final CacheMetrics metrics;
+        private final boolean stage;
+        private final boolean offHeap;
+
+        private Invocation(final Cache cache, final CacheMetrics metrics, final boolean stage, final boolean offHeap) {
+            this.cache = cache;
+            this.metrics = metrics;
+            this.stage = stage;
+            this.offHeap = offHeap;
+        }
+
+        private Object invoke(final InvocationContext context) throws Exception {
+            // the method is part of the key since a cache can be shared
+            final MethodKey key = new MethodKey(context.getMethod(), context.getParameters().clone());
+            final Object cached = cache.get(key);
+            if (cached != null) {
+                if (metrics != null) {
+                    metrics.onHit();
+                }
+                final Object value = cached == NullValue.INSTANCE ? null : cached;
+                // a stage per caller, a shared one could be cancelled or obtruded by one of them
+                return stage ? CompletableFuture.completedFuture(value) : value;
+            }
+            if (metrics != null) {
+                metrics.onMiss();
+            }
+            final Object result = context.proceed();
+            if (stage) {
+                if (result != null) { // as exceptions, a failed stage must not be cached, only its value is
+                    CompletionStage.class.cast(result).whenComplete((value, error) -> {
+                        if (error == null) {
+                            put(key, value);
+                        }
+                    });
+                }
+                return result;
+            }
+            put(key, result);
+            return result;
+        }
+
+        // the call succeeded so a value which can't be stored off heap is just not cached,
+        // the return type is validated at startup but an interface or a nested field can still not be serializable
+        private void put(final MethodKey key, final Object value) {
+            if (value == null) {
+                cache.put(key, NullValue.INSTANCE);
+                return;
+            }
+            if (!offHeap) {
+                cache.put(key, value);
+                return;
+            }
+            if (!Serializable.class.isInstance(value)) {
+                return;
+            }
+            try {
+                cache.put(key, value);
+            } catch (final IllegalArgumentException iae) {
+                // not cached
+            }
+        }
+    }
+
+    // serializable for off heap caches
+    private enum NullValue {
+        INSTANCE
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.rmannibucau.mylang.cache.api;
+
+/**
+ * Count-min sketch with 4 bits counters (16 per long) estimating the access frequency of the keys.
+ * Counters are halved periodically so the history ages. Not thread safe.
+ */
+final class FrequencySketch {
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(final int maxSize) {
+        final int size = Math.max(16, maxSize <= 1 ? 1 : Integer.highestOneBit(maxSize - 1) << 1);
+        this.table = new long[size];
+        this.mask = size - 1;
+        this.sampleSize = 10 * Math.max(1, maxSize);
+    }
+
+    int frequency(final Object key) {
+        final int hash = spread(key.hashCode());
+        int frequency = 15;
+        for (int i = 0; i < SEEDS.length; i++) {
+            final int index = index(hash, i);
+            final int offset = offset(hash, i);
+            frequency = Math.min(frequency, (int) ((table[index] >>> offset) & 15L));
+        }
+        return frequency;
+    }
+
+    void increment(final Object key) {
+        final int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            final int index = index(hash, i);
+            final int offset = offset(hash, i);
+            if (((table[index] >>> offset) & 15L) != 15L) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions >>>= 1;
+    }
+
+    private int index(final int hash, final int depth) {
+        long h = (hash + SEEDS[depth]) * SEEDS[depth];
+        h += h >>> 32;
+        return (int) h & mask;
+    }
+
+    // each depth uses its own quarter of the long so a key never increments twice the same counter
+    private static int offset(final int hash, final int depth) {
+        return ((depth << 2) + ((hash >>> (depth << 3)) & 3)) << 2;
+    }
+
+    private static int spread(final int hashCode) {
+        final int h = hashCode * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,259 @@
+package com.github.rmannibucau.mylang.cache.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache using a W-TinyLFU policy: new entries go to a small LRU window (1% of the size),
+ * entries leaving the window are admitted in the main space only if they are used more often than
+ * the entry they would evict (estimated with a frequency sketch). The main space is a segmented LRU
+ * (probation then protected once read again).
+ *
+ * Reads only take the policy lock if it is free, under contention the access is not recorded
+ * which doesn't impact correctness, only the eviction accuracy.
+ *
+ * Off heap values are serialized in direct buffers, they are deserialized on each read.
+ */
+public class TinyLfuCache implements Cache {
+    private final ConcurrentMap<Object, Node> data = new ConcurrentHashMap<>();
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final LinkedHashMap<Object, Node> window = new LinkedHashMap<>(16, .75f, true);
+    private final LinkedHashMap<Object, Node> probation = new LinkedHashMap<>(16, .75f, true);
+    private final LinkedHashMap<Object, Node> protectedSegment = new LinkedHashMap<>(16, .75f, true);
+    private final FrequencySketch sketch;
+    private final LongAdder evictions = new LongAdder();
+    private final int maxSize;
+    private final int maxWindow;
+    private final int maxProtected;
+    private final long ttl;
+    private final boolean offHeap;
+
+    public TinyLfuCache(final int maxSize, final long ttl, final TimeUnit ttlUnit, final boolean offHeap) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize should be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.maxWindow = Math.max(1, maxSize / 100);
+        this.maxProtected = (int) ((maxSize - maxWindow) * .8);
+        this.ttl = ttlUnit.toNanos(ttl);
+        this.offHeap = offHeap;
+        this.sketch = new FrequencySketch(maxSize);
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public Object get(final Object key) {
+        final Node node = data.get(key);
+        if (node == null) {
+            return null;
+        }
+        if (node.expireAt != 0 && node.expireAt - System.nanoTime() <= 0) {
+            remove(key, node);
+            return null;
+        }
+        if (policyLock.tryLock()) {
+            try {
+                onAccess(node);
+            } finally {
+                policyLock.unlock();
+            }
+        }
+        return offHeap ? deserialize(ByteBuffer.class.cast(node.value)) : node.value;
+    }
+
+    @Override
+    public void put(final Object key, final Object value) {
+        final Node node = new Node(key, offHeap ? serialize(value) : value, ttl > 0 ? System.nanoTime() + ttl : 0);
+        policyLock.lock();
+        try {
+            sketch.increment(key);
+            final Node old = data.put(key, node);
+            if (old != null && old.segment != null) {
+                node.segment = old.segment;
+                node.segment.put(key, node);
+                return;
+            }
+            node.segment = window;
+            window.put(key, node);
+            evict();
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(final Object key) {
+        final Node node = data.get(key);
+        if (node != null) {
+            remove(key, node);
+        }
+    }
+
+    @Override
+    public void clear() {
+        policyLock.lock();
+        try {
+            data.clear();
+            window.clear();
+            probation.clear();
+            protectedSegment.clear();
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    @Override
+    public long size() {
+        return data.size();
+    }
+
+    private void remove(final Object key, final Node node) {
+        policyLock.lock();
+        try {
+            if (data.remove(key, node) && node.segment != null) {
+                node.segment.remove(key);
+                node.segment = null;
+            }
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    // under the policy lock
+    private void onAccess(final Node node) {
+        if (node.segment == null) { // removed concurrently
+            return;
+        }
+        sketch.increment(node.key);
+        if (node.segment == probation) { // read twice, promote it
+            probation.remove(node.key);
+            node.segment = protectedSegment;
+            protectedSegment.put(node.key, node);
+            if (protectedSegment.size() > maxProtected) {
+                final Node demoted = pollFirst(protectedSegment);
+                demoted.segment = probation;
+                probation.put(demoted.key, demoted);
+            }
+        } else {
+            node.segment.get(node.key); // refresh the LRU order
+        }
+    }
+
+    // under the policy lock
+    private void evict() {
+        while (window.size() > maxWindow) {
+            final Node candidate = pollFirst(window);
+            if (window.size() + probation.size() + protectedSegment.size() < maxSize) {
+                candidate.segment = probation;
+                probation.put(candidate.key, candidate);
+                continue;
+            }
+
+            final Map<Object, Node> victimSegment = probation.isEmpty() ? protectedSegment : probation;
+            if (victimSegment.isEmpty()) { // the window is the whole cache (tiny max size)
+                drop(candidate);
+                continue;
+            }
+            final Node victim = victimSegment.values().iterator().next();
+            if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                victimSegment.remove(victim.key);
+                drop(victim);
+                candidate.segment = probation;
+                probation.put(candidate.key, candidate);
+            } else {
+                drop(candidate);
+            }
+        }
+    }
+
+    private void drop(final Node node) {
+        node.segment = null;
+        data.remove(node.key, node);
+        evictions.increment();
+    }
+
+    private static Node pollFirst(final LinkedHashMap<Object, Node> segment) {
+        final Iterator<Node> iterator = segment.values().iterator();
+        final Node first = iterator.next();
+        iterator.remove();
+        return first;
+    }
+
+    private static ByteBuffer serialize(final Object value) {
+        if (!Serializable.class.isInstance(value)) {
+            throw new IllegalArgumentException("Off heap values should be Serializable: " + value);
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final ObjectOutputStream stream = new ObjectOutputStream(bytes)) {
+            stream.writeObject(value);
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("Can't serialize " + value, e);
+        }
+        final byte[] array = bytes.toByteArray();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(array.length);
+        buffer.put(array);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static Object deserialize(final ByteBuffer buffer) {
+        final ByteBuffer view = buffer.duplicate();
+        final byte[] array = new byte[view.remaining()];
+        view.get(array);
+        try (final ObjectInputStream stream = new ContextObjectInputStream(new ByteArrayInputStream(array))) {
+            return stream.readObject();
+        } catch (final IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Can't deserialize a cached value", e);
+        }
+    }
+
+    private static final class Node {
+        private final Object key;
+        private final Object value;
+        private final long expireAt;
+        private LinkedHashMap<Object, Node> segment; // guarded by the policy lock, null once removed
+
+        private Node(final Object key, final Object value, final long expireAt) {
+            this.key = key;
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+    private static final class ContextObjectInputStream extends ObjectInputStream {
+        private ContextObjectInputStream(final InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            if (loader == null) {
+                return super.resolveClass(desc);
+            }
+            try {
+                return Class.forName(desc.getName(), false, loader);
+            } catch (final ClassNotFoundException e) {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.github.rmannibucau.mylang.cdi.api;
+
+import javax.enterprise.event.Observes;
+import javax.enterprise.inject.spi.AnnotatedMethod;
+import javax.enterprise.inject.spi.AnnotatedType;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.enterprise.inject.spi.Extension;
+import javax.enterprise.inject.spi.ProcessAnnotatedType;
+import javax.enterprise.inject.spi.WithAnnotations;
+import javax.interceptor.Interceptor;
+import javax.interceptor.InterceptorBinding;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.unmodifiableMap;
+import static java.util.stream.Collectors.toCollection;
+
+/**
+ * Collects the intercepted methods during the discovery so interceptors can compute
+ * their metadata at startup instead of on the first call. Methods are indexed by interceptor binding,
+ * any annotation marked with @InterceptorBinding is supported.
+ */
+public class MetadataExtension implements Extension {
+    private final Map<Class<? extends Annotation>, Map<Method, InterceptedMethod>> methods = new HashMap<>();
+
+    // @WithAnnotations also matches the annotations annotated with the listed ones, i.e. any interceptor binding
+    <T> void collect(@Observes @WithAnnotations(InterceptorBinding.class) final ProcessAnnotatedType<T> pat) {
+        final AnnotatedType<T> type = pat.getAnnotatedType();
+        if (type.isAnnotationPresent(Interceptor.class)) {
+            return;
+        }
+        final Set<Class<? extends Annotation>> typeBindings = bindings(type.getAnnotations());
+        type.getMethods().stream()
+            .filter(m -> !Modifier.isStatic(m.getJavaMember().getModifiers()) && m.getJavaMember().getDeclaringClass() != Object.class)
+            .forEach(m -> {
+                final Set<Class<? extends Annotation>> bindings = bindings(m.getAnnotations());
+                bindings.addAll(typeBindings);
+                if (bindings.isEmpty()) {
+                    return;
+                }
+                final InterceptedMethod interceptedMethod = new InterceptedMethod(type, m);
+                bindings.forEach(binding -> methods.computeIfAbsent(binding, k -> new HashMap<>()).put(m.getJavaMember(), interceptedMethod));
+            });
+    }
+
+    private static Set<Class<? extends Annotation>> bindings(final Set<Annotation> annotations) {
+        return annotations.stream()
+            .map(Annotation::annotationType)
+            .filter(a -> a.isAnnotationPresent(InterceptorBinding.class))
+            .collect(toCollection(HashSet::new));
+    }
+
+    /**
+     * @param binding the interceptor binding.
+     * @return the methods intercepted with this binding found during the discovery.
+     */
+    public Map<Method, InterceptedMethod> getMethods(final Class<? extends Annotation> binding) {
+        return unmodifiableMap(methods.getOrDefault(binding, emptyMap()));
+    }
+
+    /**
+     * Slow path for methods not seen during the discovery (programmatic beans for instance).
+     *
+     * @param beanManager the bean manager to use to create the annotated type.
+     * @param method the intercepted method.
+     * @return the intercepted method model.
+     */
+    public static InterceptedMethod find(final BeanManager beanManager, final Method method) {
+        final AnnotatedType<?> annotatedType = beanManager.createAnnotatedType(method.getDeclaringClass());
+        return new InterceptedMethod(annotatedType, annotatedType.getMethods().stream()
+            .filter(am -> am.getJavaMember().equals(method))
+            .findFirst()
+            .orElseThrow(() -> new IllegalStateException("No annotated method for " + method)));
+    }
+
+    public static class InterceptedMethod {
+        private final AnnotatedType<?> type;
+        private final AnnotatedMethod<?> method;
+
+        private InterceptedMethod(final AnnotatedType<?> type, final AnnotatedMethod<?> method) {
+            this.type = type;
+            this.method = method;
+        }
+
+        public AnnotatedType<?> getType() {
+            return type;
+        }
+
+        public AnnotatedMethod<?> getMethod() {
+            return method;
+        }
+
+        /**
+         * @param annotation the annotation type.
+         * @param <A> the annotation type.
+         * @return the method annotation or the type one if the method is not annotated, null if none.
+         */
+        public <A extends Annotation> A getAnnotation(final Class<A> annotation) {
+            final A onMethod = method.getAnnotation(annotation);
+            return onMethod != null ? onMethod : type.getAnnotation(annotation);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.github.rmannibucau.mylang.cdi.api;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * Key of a call: the method and its parameters compared by value (arrays included).
+ * The method is part of the key so a map can be shared by several methods.
+ *
+ * The parameters array is not copied, callers pass a copy when the invocation one can change.
+ */
+public final class MethodKey {
+    private final Method method;
+    private final Object[] parameters;
+    private final int hash;
+
+    public MethodKey(final Method method, final Object[] parameters) {
+        this.method = method;
+        this.parameters = parameters;
+        this.hash = 31 * method.hashCode() + Arrays.deepHashCode(parameters);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final MethodKey key = MethodKey.class.cast(o);
+        return hash == key.hash && method.equals(key.method) && Arrays.deepEquals(parameters, key.parameters);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.rmannibucau.mylang.cdi.api;
+
+import com.github.rmannibucau.mylang.cdi.api.MetadataExtension.InterceptedMethod;
+
+import javax.enterprise.inject.spi.BeanManager;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+
+import static java.util.Collections.emptyMap;
+
+/**
+ * Metadata of the methods of an interceptor binding: computed at startup for the methods found by MetadataExtension,
+ * on the first call for the other ones, then read from a MethodTable.
+ *
+ * @param <T> the metadata type.
+ */
+public final class MethodMetadata<T> {
+    private final MethodTable<T> table = new MethodTable<>();
+    private final ConcurrentMap<Method, T> created = new ConcurrentHashMap<>();
+    private final BiFunction<Method, InterceptedMethod, T> factory;
+
+    // precomputed at startup, read-only after
+    private volatile Map<Method, T> precomputed = emptyMap();
+
+    /**
+     * @param factory creates the metadata of a method, it can throw to fail the deployment.
+     */
+    public MethodMetadata(final BiFunction<Method, InterceptedMethod, T> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Computes the metadata of the discovered methods, to call when the application starts.
+     *
+     * @param extension the extension which collected the methods.
+     * @param binding the interceptor binding.
+     */
+    public void init(final MetadataExtension extension, final Class<? extends Annotation> binding) {
+        final Map<Method, T> metadata = new HashMap<>();
+        extension.getMethods(binding).forEach((method, im) -> metadata.put(method, factory.apply(method, im)));
+        precomputed = metadata;
+    }
+
+    /**
+     * @param beanManager used to build the model of a method not seen during the discovery.
+     * @param method the intercepted method.
+     * @return the metadata of the method.
+     */
+    public T get(final BeanManager beanManager, final Method method) {
+        final T value = table.get(method);
+        if (value != null) {
+            return value;
+        }
+        return table.put(method, find(beanManager, method));
+    }
+
+    private T find(final BeanManager beanManager, final Method method) {
+        final T value = precomputed.get(method);
+        if (value != null) {
+            return value;
+        }
+        final T existing = created.get(method);
+        if (existing != null) {
+            return existing;
+        }
+        return created.computeIfAbsent(method, m -> factory.apply(m, MetadataExtension.find(beanManager, m)));
+    }
+}
@@ -0,0 +1,85 @@
+package com.github.rmannibucau.mylang.cdi.api;
+
+import java.lang.reflect.Method;
+
+/**
+ * Identity keyed table used by the interceptors to find the invocation plan of a method.
+ * The container passes the same Method instance for each call of a method so the lookup
+ * can skip Method.hashCode()/equals() which compare names and parameter types.
+ *
+ * Reads don't lock nor allocate, writes copy the table and are expected once per method
+ * so callers must keep an equals() based lookup as fallback.
+ *
+ * @param <T> the value type.
+ */
+public final class MethodTable<T> {
+    // the same method can be represented by several instances, avoid to grow forever in that case
+    private static final int MAX_SIZE = 1 << 14;
+
+    // keys at even indices, values at odd ones, slots are linearly probed
+    private volatile Object[] table = new Object[64];
+    private int size;
+
+    /**
+     * @param method the invoked method.
+     * @return the value registered for this exact instance or null.
+     */
+    public T get(final Method method) {
+        final Object[] tab = table;
+        final int mask = (tab.length >> 1) - 1;
+        int slot = slot(method, mask);
+        while (true) {
+            final Object key = tab[slot << 1];
+            if (key == method) {
+                return (T) tab[(slot << 1) + 1];
+            }
+            if (key == null) {
+                return null;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @param method the method to register.
+     * @param value the value to associate to this method instance.
+     * @return the value (convenient for callers on the slow path).
+     */
+    public synchronized T put(final Method method, final T value) {
+        if (size >= MAX_SIZE || get(method) != null) {
+            return value;
+        }
+        final Object[] current = table;
+        final int slots = current.length >> 1;
+        final Object[] copy;
+        if ((size + 1) << 1 > slots) {
+            copy = new Object[current.length << 1];
+            for (int i = 0; i < current.length; i += 2) {
+                if (current[i] != null) {
+                    insert(copy, current[i], current[i + 1]);
+                }
+            }
+        } else {
+            copy = current.clone();
+        }
+        insert(copy, method, value);
+        size++;
+        table = copy;
+        return value;
+    }
+
+    private static void insert(final Object[] tab, final Object key, final Object value) {
+        final int mask = (tab.length >> 1) - 1;
+        int slot = slot(key, mask);
+        while (tab[slot << 1] != null) {
+            slot = (slot + 1) & mask;
+        }
+        tab[slot << 1] = key;
+        tab[(slot << 1) + 1] = value;
+    }
+
+    private static int slot(final Object key, final int mask) {
+        final int h = System.identityHashCode(key);
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
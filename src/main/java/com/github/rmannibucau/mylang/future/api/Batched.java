@@ -0,0 +1,53 @@
+package com.github.rmannibucau.mylang.future.api;
+
+import javax.enterprise.util.Nonbinding;
+import javax.interceptor.InterceptorBinding;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Collects the concurrent calls of a single key method and executes them with one call
+ * of a bulk method of the same bean.
+ *
+ * The intercepted method takes the key as only parameter and returns a CompletionStage (or CompletableFuture),
+ * its body is never called. The bulk method takes a List of keys and returns a Map (key to value)
+ * or a CompletionStage of this Map. Each caller gets the value of its key, null if the map doesn't contain it.
+ *
+ * The bulk method is called directly on the bean instance, its own interceptors are not applied.
+ */
+@InterceptorBinding
+@Retention(RUNTIME)
+@Target({TYPE, METHOD})
+public @interface Batched {
+    /**
+     * @return pool name used to execute the bulk method.
+     */
+    @Nonbinding
+    String value();
+
+    /**
+     * @return name of the bulk method.
+     */
+    @Nonbinding
+    String method();
+
+    /**
+     * @return max number of keys of a batch, a full batch is executed without waiting for the window.
+     */
+    @Nonbinding
+    int maxSize() default 100;
+
+    /**
+     * @return how long to collect calls after the first call of a batch.
+     */
+    @Nonbinding
+    long window() default 10L;
+
+    @Nonbinding
+    TimeUnit windowUnit() default TimeUnit.MILLISECONDS;
+}
@@ -0,0 +1,239 @@
+package com.github.rmannibucau.mylang.future.api;
+
+import com.github.rmannibucau.mylang.cdi.api.MetadataExtension;
+import com.github.rmannibucau.mylang.cdi.api.MetadataExtension.InterceptedMethod;
+import com.github.rmannibucau.mylang.cdi.api.MethodMetadata;
+import com.github.rmannibucau.mylang.thread.api.ThreadPoolManager;
+import com.github.rmannibucau.mylang.thread.api.TimerWheel;
+
+import javax.annotation.Priority;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.enterprise.inject.Typed;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.inject.Inject;
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.Interceptor;
+import javax.interceptor.InvocationContext;
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+@Batched(value = "", method = "")
+@Interceptor
+@Priority(Interceptor.Priority.APPLICATION)
+public class BatchedInterceptor implements Serializable {
+    @Inject
+    private Batches batches;
+
+    @AroundInvoke
+    public Object invoke(final InvocationContext ic) throws Exception {
+        return batches.getOrCreateBatcher(ic.getMethod()).add(ic.getTarget(), ic.getParameters()[0]);
+    }
+
+    @ApplicationScoped
+    @Typed(Batches.class)
+    static class Batches {
+        private final MethodMetadata<Batcher> batchers = new MethodMetadata<>(this::createBatcher);
+
+        @Inject
+        private ThreadPoolManager manager;
+
+        @Inject
+        private BeanManager beanManager;
+
+        @Inject
+        private MetadataExtension extension;
+
+        void init(@Observes @Initialized(ApplicationScoped.class) final Object start) {
+            batchers.init(extension, Batched.class);
+        }
+
+        Batcher getOrCreateBatcher(final Method method) {
+            return batchers.get(beanManager, method);
+        }
+
+        private Batcher createBatcher(final Method method, final InterceptedMethod interceptedMethod) {
+            final Batched batched = interceptedMethod.getAnnotation(Batched.class);
+            if (method.getParameterCount() != 1) {
+                throw new IllegalArgumentException(method + " should take the key as only parameter");
+            }
+            if (!method.getReturnType().isAssignableFrom(CompletableFuture.class)) {
+                throw new IllegalArgumentException("Return type of " + method + " should be a CompletionStage");
+            }
+            if (batched.maxSize() <= 0) {
+                throw new IllegalArgumentException("maxSize of " + method + " should be positive");
+            }
+
+            final Method bulk = Stream.of(method.getDeclaringClass().getDeclaredMethods())
+                .filter(m -> m.getName().equals(batched.method()) && m.getParameterCount() == 1)
+                .filter(m -> m.getParameterTypes()[0].isAssignableFrom(ArrayList.class))
+                .filter(m -> Map.class.isAssignableFrom(m.getReturnType()) || CompletionStage.class.isAssignableFrom(m.getReturnType()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException(
+                    "No bulk method " + batched.method() + "(List) returning a Map or a CompletionStage<Map> in " + method.getDeclaringClass()));
+            if (!bulk.isAccessible()) {
+                bulk.setAccessible(true);
+            }
+            return new Batcher(manager, batched.value(), bulk, batched.maxSize(), batched.windowUnit().toNanos(batched.window()));
+        }
+    }
+
+    private static final class Batcher {
+        private final ThreadPoolManager manager;
+        private final String poolName;
+        private final Method bulk;
+        private final int maxSize;
+        private final long window;
+        private volatile Executor pool; // resolved once the manager is running
+
+        private Batch current; // guarded by this
+
+        private Batcher(final ThreadPoolManager manager, final String poolName, final Method bulk, final int maxSize, final long window) {
+            this.manager = manager;
+            this.poolName = poolName;
+            this.bulk = bulk;
+            this.maxSize = maxSize;
+            this.window = window;
+        }
+
+        private CompletableFuture<Object> add(final Object target, final Object key) {
+            final CompletableFuture<Object> result = new CompletableFuture<>();
+            Batch full = null;
+            Batch other = null;
+            synchronized (this) {
+                if (current != null && current.target != target) { // batches are per bean instance
+                    other = current;
+                    current = null;
+                }
+                if (current == null) {
+                    final Batch batch = new Batch(target);
+                    current = batch;
+                    if (maxSize > 1) { // the window end only hands the batch over to the pool so it can run in the timer thread
+                        batch.timeout = manager.getTimer().schedule(() -> onWindowEnd(batch), window, TimeUnit.NANOSECONDS);
+                    }
+                }
+                current.add(key, result);
+                if (current.size >= maxSize) {
+                    full = current;
+                    current = null;
+                }
+            }
+            if (other != null) {
+                execute(other);
+            }
+            if (full != null) {
+                execute(full);
+            }
+            return result;
+        }
+
+        private void onWindowEnd(final Batch batch) {
+            synchronized (this) {
+                if (current == batch) {
+                    current = null;
+                }
+            }
+            execute(batch);
+        }
+
+        private void execute(final Batch batch) {
+            if (!batch.executed.compareAndSet(false, true)) {
+                return;
+            }
+            if (batch.timeout != null) {
+                batch.timeout.cancel();
+            }
+            try {
+                getPool().execute(() -> invoke(batch));
+            } catch (final RuntimeException re) { // rejected or pool not available
+                batch.fail(re);
+            }
+        }
+
+        private void invoke(final Batch batch) {
+            final Object result;
+            try {
+                result = bulk.invoke(batch.target, new ArrayList<>(batch.waiters.keySet()));
+            } catch (final InvocationTargetException ite) {
+                batch.fail(ite.getCause());
+                return;
+            } catch (final Exception e) {
+                batch.fail(e);
+                return;
+            }
+            if (CompletionStage.class.isInstance(result)) {
+                CompletionStage.class.cast(result).whenComplete((values, error) -> {
+                    if (error != null) {
+                        batch.fail(Throwable.class.cast(error));
+                    } else {
+                        complete(batch, values);
+                    }
+                });
+            } else {
+                complete(batch, result);
+            }
+        }
+
+        // an exception thrown in whenComplete is swallowed so a bad bulk result must fail the callers explicitly
+        private void complete(final Batch batch, final Object values) {
+            final Map<?, ?> map;
+            try {
+                map = Map.class.cast(values);
+            } catch (final ClassCastException cce) {
+                batch.fail(new IllegalStateException(bulk + " didn't return a Map: " + values.getClass().getName(), cce));
+                return;
+            }
+            batch.complete(map);
+        }
+
+        private Executor getPool() {
+            Executor executor = pool;
+            if (executor == null) {
+                executor = manager.getOrCreatePool(poolName);
+                pool = executor;
+            }
+            return executor;
+        }
+    }
+
+    private static final class Batch {
+        private final Object target;
+        private final AtomicBoolean executed = new AtomicBoolean();
+        // insertion ordered, a key requested several times is loaded once
+        private final Map<Object, List<CompletableFuture<Object>>> waiters = new LinkedHashMap<>();
+        private int size;
+        private TimerWheel.Timeout timeout;
+
+        private Batch(final Object target) {
+            this.target = target;
+        }
+
+        private void add(final Object key, final CompletableFuture<Object> result) {
+            waiters.computeIfAbsent(key, k -> new ArrayList<>(1)).add(result);
+            size++;
+        }
+
+        private void complete(final Map<?, ?> values) {
+            waiters.forEach((key, futures) -> {
+                final Object value = values == null ? null : values.get(key);
+                futures.forEach(f -> f.complete(value));
+            });
+        }
+
+        private void fail(final Throwable error) {
+            waiters.values().forEach(futures -> futures.forEach(f -> f.completeExceptionally(error)));
+        }
+    }
+}
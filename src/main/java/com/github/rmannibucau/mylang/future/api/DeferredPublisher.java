@@ -0,0 +1,199 @@
+package com.github.rmannibucau.mylang.future.api;
+
+import com.github.rmannibucau.mylang.thread.api.Deadline;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import javax.interceptor.InvocationContext;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Publisher returned for a Publisher returning @Futureable method: the method is called in the pool
+ * when subscribing and the publisher it returns is subscribed from the pool too,
+ * the demand requested in between is forwarded once the upstream subscription exists.
+ *
+ * The returned publisher is single use since the method is called once.
+ * Kept apart from the interceptor to load reactive-streams only when a method returns a Publisher.
+ */
+final class DeferredPublisher implements Publisher<Object> {
+    private final InvocationContext ic;
+    private final Executor pool;
+    private final long deadline;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    DeferredPublisher(final InvocationContext ic, final Executor pool, final long deadline) {
+        this.ic = ic;
+        this.pool = pool;
+        this.deadline = deadline;
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super Object> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber can't be null");
+        }
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Relay(subscriber));
+            subscriber.onError(new IllegalStateException("Only one subscriber is supported by " + ic.getMethod()));
+            return;
+        }
+        final Relay relay = new Relay(subscriber);
+        subscriber.onSubscribe(relay);
+        try {
+            pool.execute(() -> call(relay));
+        } catch (final RuntimeException re) { // rejected
+            relay.onError(re);
+        }
+    }
+
+    private void call(final Relay relay) {
+        if (relay.isCancelled()) {
+            return;
+        }
+        if (deadline != 0 && deadline - System.nanoTime() <= 0) {
+            relay.onError(new TimeoutException("Deadline exceeded before calling " + ic.getMethod()));
+            return;
+        }
+        final Object upstream;
+        final Long previous = Deadline.set(deadline);
+        try {
+            upstream = ic.proceed();
+        } catch (final InvocationTargetException e) {
+            relay.onError(e.getCause());
+            return;
+        } catch (final Exception e) {
+            relay.onError(e);
+            return;
+        } finally {
+            Deadline.restore(previous);
+        }
+        if (upstream == null) {
+            relay.onError(new IllegalStateException(ic.getMethod() + " returned a null Publisher"));
+            return;
+        }
+        Publisher.class.cast(upstream).subscribe(relay);
+    }
+
+    /**
+     * Subscription given to the caller and subscriber of the method publisher.
+     * The demand and cancellation are recorded under the relay lock and forwarded to the upstream subscription
+     * out of it by a single thread at a time (the emitting one), this keeps the upstream calls serial
+     * without holding the lock while the upstream publisher emits synchronously from request().
+     */
+    private static final class Relay implements Subscription, Subscriber<Object> {
+        private final Subscriber<? super Object> downstream;
+        private Subscription upstream; // guarded by this
+        private long pending; // guarded by this
+        private long invalidRequest; // guarded by this
+        private boolean cancelled; // guarded by this
+        private boolean emitting; // guarded by this
+
+        private Relay(final Subscriber<? super Object> downstream) {
+            this.downstream = downstream;
+        }
+
+        private synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void request(final long n) {
+            final Subscription subscription;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                if (n <= 0) {
+                    invalidRequest = n; // the upstream publisher reports it as mandated by the spec
+                } else {
+                    pending = pending + n < 0 ? Long.MAX_VALUE : pending + n;
+                }
+                if (upstream == null || emitting) {
+                    return;
+                }
+                emitting = true;
+                subscription = upstream;
+            }
+            forward(subscription);
+        }
+
+        @Override
+        public void cancel() {
+            final Subscription subscription;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                if (upstream == null || emitting) { // onSubscribe or the emitting thread cancels it
+                    return;
+                }
+                emitting = true;
+                subscription = upstream;
+            }
+            subscription.cancel();
+        }
+
+        @Override
+        public void onSubscribe(final Subscription subscription) {
+            final boolean accepted;
+            synchronized (this) {
+                accepted = upstream == null && !cancelled;
+                if (accepted) {
+                    upstream = subscription;
+                    emitting = true;
+                }
+            }
+            if (accepted) {
+                forward(subscription);
+            } else {
+                subscription.cancel();
+            }
+        }
+
+        // only called by the emitting thread, it stays emitting after a cancellation to never call the subscription again
+        private void forward(final Subscription subscription) {
+            while (true) {
+                final long requested;
+                synchronized (this) {
+                    if (cancelled) {
+                        requested = 0;
+                    } else if (invalidRequest != 0) {
+                        requested = invalidRequest;
+                        invalidRequest = 0;
+                    } else if (pending > 0) {
+                        requested = pending;
+                        pending = 0;
+                    } else {
+                        emitting = false;
+                        return;
+                    }
+                }
+                if (requested == 0) {
+                    subscription.cancel();
+                    return;
+                }
+                subscription.request(requested);
+            }
+        }
+
+        @Override
+        public void onNext(final Object item) {
+            downstream.onNext(item);
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            downstream.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            downstream.onComplete();
+        }
+    }
+}
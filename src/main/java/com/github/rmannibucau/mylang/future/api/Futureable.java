@@ -4,11 +4,18 @@ import javax.enterprise.util.Nonbinding;
 import javax.interceptor.InterceptorBinding;
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
 
 import static java.lang.annotation.ElementType.METHOD;
 import static java.lang.annotation.ElementType.TYPE;
 import static java.lang.annotation.RetentionPolicy.RUNTIME;
 
+/**
+ * Runs the method in a pool, it returns a CompletionStage, a Future or a reactive-streams Publisher.
+ * A Publisher method is called in the pool when the returned publisher is subscribed and its publisher
+ * is subscribed from the pool, use IteratorPublisher to also emit from the pool with back-pressure.
+ * The return type must be Publisher itself, a Publisher subtype fails the deployment.
+ */
 @InterceptorBinding
 @Retention(RUNTIME)
 @Target({TYPE, METHOD})
@@ -18,4 +25,23 @@ public @interface Futureable {
      */
     @Nonbinding
     String value();
+
+    /**
+     * @return true to compose the CompletionStage returned by the method instead of waiting for it
+     * in the pool thread. The pool thread is then released as soon as the method returned.
+     */
+    @Nonbinding
+    boolean compose() default false;
+
+    /**
+     * @return max duration of the call, once exceeded the returned stage fails with a TimeoutException
+     * and the task is cancelled (interrupted if running). 0 means no timeout.
+     * Nested @Futureable, @Locked and @Throttled calls are bounded by this deadline.
+     * For a Publisher it only bounds the method call, the stream itself is not bounded.
+     */
+    @Nonbinding
+    long timeout() default 0L;
+
+    @Nonbinding
+    TimeUnit timeoutUnit() default TimeUnit.MILLISECONDS;
 }
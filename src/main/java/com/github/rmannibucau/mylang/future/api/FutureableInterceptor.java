@@ -1,9 +1,18 @@
 package com.github.rmannibucau.mylang.future.api;
 
+import com.github.rmannibucau.mylang.cdi.api.MetadataExtension;
+import com.github.rmannibucau.mylang.cdi.api.MetadataExtension.InterceptedMethod;
+import com.github.rmannibucau.mylang.cdi.api.MethodMetadata;
+import com.github.rmannibucau.mylang.thread.api.Deadline;
 import com.github.rmannibucau.mylang.thread.api.ThreadPoolManager;
+import com.github.rmannibucau.mylang.thread.api.TimerWheel;
+import com.github.rmannibucau.mylang.thread.api.TracedThreadPoolExecutor;
 
 import javax.annotation.Priority;
-import javax.enterprise.inject.spi.AnnotatedType;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.enterprise.inject.Typed;
 import javax.enterprise.inject.spi.BeanManager;
 import javax.inject.Inject;
 import javax.interceptor.AroundInvoke;
@@ -15,55 +24,54 @@ import java.lang.reflect.Method;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.Supplier;
-
-import static java.util.Optional.ofNullable;
 
 @Interceptor
 @Futureable("")
 @Priority(Interceptor.Priority.APPLICATION)
 public class FutureableInterceptor implements Serializable {
     @Inject
-    private ThreadPoolManager manager;
-
-    @Inject
-    private BeanManager beanManager;
-
-    private transient ConcurrentMap<Method, Executor> configByMethod = new ConcurrentHashMap<>();
+    private Configs configs;
 
     @AroundInvoke
     public Object invoke(final InvocationContext ic) throws Exception {
+        final Config config = configs.getOrCreateConfig(ic.getMethod());
+
+        if (config.publisher) { // the method runs at subscription time
+            return new DeferredPublisher(ic, config.getPool(), Deadline.of(config.timeout));
+        }
+
         // validate usage
         final Class<?> returnType = ic.getMethod().getReturnType();
         if (!CompletionStage.class.isAssignableFrom(returnType) && !Future.class.isAssignableFrom(returnType)) {
-            throw new IllegalArgumentException("Return type should be a CompletableStage or Future");
+            throw new IllegalArgumentException("Return type should be a CompletableStage, Future or Publisher");
         }
 
-        // in case of serialization reinit internal cache
-        if (configByMethod == null) {
-            synchronized (this) {
-                if (configByMethod == null) {
-                    configByMethod = new ConcurrentHashMap<>();
-                }
-            }
+        final Execution execution = new Execution(Deadline.of(config.timeout));
+        if (execution.deadline != 0 && execution.deadline - System.nanoTime() <= 0) { // don't queue useless work
+            final CompletableFuture<Object> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new TimeoutException("Deadline exceeded before calling " + ic.getMethod()));
+            return failed;
         }
 
-        final AtomicReference<Supplier<?>> cancelHook = new AtomicReference<>();
-        return CompletableFuture.supplyAsync(() -> {
+        final Executor pool = config.getPool();
+        final CompletableFuture<Object> result = config.compose ? compose(ic, pool, execution) : CompletableFuture.supplyAsync(() -> {
             try {
-                final Object proceed = ic.proceed();
+                final Object proceed = execution.proceed(ic);
                 if (CompletionStage.class.isInstance(proceed)) {
-                    final CompletableFuture completableFuture = CompletionStage.class.cast(proceed).toCompletableFuture();
-                    cancelHook.set(() -> completableFuture.cancel(true));
+                    final CompletableFuture<?> completableFuture = CompletionStage.class.cast(proceed).toCompletableFuture();
+                    execution.cancelHook.set(completableFuture);
                     return completableFuture.get();
                 } else {
                     final Future<?> future = Future.class.cast(proceed);
-                    cancelHook.set(() -> future.cancel(true));
+                    execution.cancelHook.set(future);
                     return future.get();
                 }
             } catch (final InvocationTargetException e) {
@@ -71,9 +79,62 @@ public class FutureableInterceptor implements Serializable {
             } catch (final Exception e) {
                 throw rethrow(e);
             }
-        }, getOrCreatePool(ic))
-            .whenComplete((r, e) -> ofNullable(e).filter(CancellationException.class::isInstance)
-                .ifPresent(ce -> ofNullable(cancelHook.get()).ifPresent(Supplier::get)));
+        }, pool);
+        result.whenComplete((r, e) -> execution.onCompletion(e));
+        if (execution.deadline != 0) {
+            final TimerWheel.Timeout timeout = config.manager.getTimer().schedule(
+                () -> outOfTimer(() -> result.completeExceptionally(new TimeoutException("Timeout calling " + ic.getMethod()))),
+                execution.deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            result.whenComplete((r, e) -> timeout.cancel());
+        }
+        return result;
+    }
+
+    private CompletableFuture<Object> compose(final InvocationContext ic, final Executor pool, final Execution execution) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return execution.proceed(ic);
+            } catch (final InvocationTargetException e) {
+                throw rethrow(e.getCause());
+            } catch (final Exception e) {
+                throw rethrow(e);
+            }
+        }, pool).thenCompose(proceed -> {
+            if (CompletionStage.class.isInstance(proceed)) {
+                final CompletableFuture<Object> completableFuture = CompletionStage.class.cast(proceed).toCompletableFuture();
+                execution.cancelHook.set(completableFuture);
+                return completableFuture;
+            }
+
+            // a plain Future can't be composed, wait for it in the pool as in blocking mode
+            final Future<?> future = Future.class.cast(proceed);
+            execution.cancelHook.set(future);
+            if (future.isDone()) {
+                return CompletableFuture.completedFuture(get(future));
+            }
+            return CompletableFuture.supplyAsync(() -> get(future), pool);
+        });
+    }
+
+    // the timer thread is shared and must stay fast: the caller stages and the cancellation of the task run elsewhere,
+    // not in the pool of the call which can be saturated by the task timing out
+    private static void outOfTimer(final Runnable completion) {
+        try {
+            ForkJoinPool.commonPool().execute(completion);
+        } catch (final RejectedExecutionException ree) {
+            completion.run();
+        }
+    }
+
+    private Object get(final Future<?> future) {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.interrupted();
+            throw new IllegalStateException(e);
+        } catch (final ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
     }
 
     private RuntimeException rethrow(final Throwable cause) {
@@ -83,14 +144,145 @@ public class FutureableInterceptor implements Serializable {
         return new IllegalStateException(cause);
     }
 
-    private Executor getOrCreatePool(final InvocationContext ic) {
-        return configByMethod.computeIfAbsent(ic.getMethod(), m -> {
-            final AnnotatedType<?> annotatedType = beanManager.createAnnotatedType(m.getDeclaringClass());
-            return manager.getOrCreatePool(
-                annotatedType.getMethods().stream().filter(am -> am.getJavaMember().equals(m))
-                    .findFirst()
-                    .map(am -> am.getAnnotation(Futureable.class))
-                    .orElseGet(() -> annotatedType.getAnnotation(Futureable.class)).value());
-        });
+    @ApplicationScoped
+    @Typed(Configs.class)
+    static class Configs {
+        private final MethodMetadata<Config> configs = new MethodMetadata<>((method, im) -> createConfig(im));
+
+        @Inject
+        private ThreadPoolManager manager;
+
+        @Inject
+        private BeanManager beanManager;
+
+        @Inject
+        private MetadataExtension extension;
+
+        void init(@Observes @Initialized(ApplicationScoped.class) final Object start) {
+            configs.init(extension, Futureable.class);
+        }
+
+        Config getOrCreateConfig(final Method method) {
+            return configs.get(beanManager, method);
+        }
+
+        private Config createConfig(final InterceptedMethod interceptedMethod) {
+            final Futureable futureable = interceptedMethod.getAnnotation(Futureable.class);
+            final Method method = interceptedMethod.getMethod().getJavaMember();
+            return new Config(
+                manager, futureable.value(), futureable.compose(), futureable.timeoutUnit().toNanos(futureable.timeout()),
+                method.getDeclaringClass().getName() + '.' + method.getName(), isPublisher(method));
+        }
+
+        // reactive-streams is optional so it is only looked up from the return type,
+        // only Publisher itself is supported since the returned instance is a DeferredPublisher
+        private static boolean isPublisher(final Method method) {
+            final Class<?> returnType = method.getReturnType();
+            if (returnType.isPrimitive() || returnType.getClassLoader() == null) {
+                return false;
+            }
+            final Class<?> publisher;
+            try {
+                publisher = Class.forName("org.reactivestreams.Publisher", false, returnType.getClassLoader());
+            } catch (final ClassNotFoundException | LinkageError e) {
+                return false;
+            }
+            if (publisher == returnType) {
+                return true;
+            }
+            if (publisher.isAssignableFrom(returnType)) {
+                throw new IllegalArgumentException(
+                    "@Futureable " + method + " should return " + publisher.getName() + ", subtypes are not supported: " + returnType.getName());
+            }
+            return false;
+        }
+    }
+
+    private static final class Config {
+        private final ThreadPoolManager manager;
+        private final String poolName;
+        private final boolean compose;
+        private final long timeout;
+        private final String description;
+        private final boolean publisher;
+        private volatile Executor pool; // resolved once the manager is running
+
+        private Config(final ThreadPoolManager manager, final String poolName, final boolean compose, final long timeout,
+                       final String description, final boolean publisher) {
+            this.manager = manager;
+            this.poolName = poolName;
+            this.compose = compose;
+            this.timeout = timeout;
+            this.description = description;
+            this.publisher = publisher;
+        }
+
+        private Executor getPool() {
+            Executor executor = pool;
+            if (executor == null) {
+                executor = manager.getOrCreatePool(poolName);
+                if (TracedThreadPoolExecutor.class.isInstance(executor)) { // slow tasks are then reported with the method
+                    final TracedThreadPoolExecutor traced = TracedThreadPoolExecutor.class.cast(executor);
+                    executor = task -> traced.execute(task, description);
+                }
+                pool = executor;
+            }
+            return executor;
+        }
+    }
+
+    /**
+     * State of a call: the deadline propagated to the task, the thread running it to interrupt it
+     * and the future returned by the method to cancel it when the call is cancelled or times out.
+     */
+    private static final class Execution {
+        private final long deadline;
+        private final AtomicReference<Future<?>> cancelHook = new AtomicReference<>();
+        private Thread runner; // guarded by this
+        private boolean done; // guarded by this
+        private boolean interrupted; // guarded by this
+
+        private Execution(final long deadline) {
+            this.deadline = deadline;
+        }
+
+        private Object proceed(final InvocationContext ic) throws Exception {
+            synchronized (this) {
+                if (done) { // cancelled or timed out while queued, the result is already completed
+                    throw new CancellationException();
+                }
+                runner = Thread.currentThread();
+            }
+            final Long previous = Deadline.set(deadline);
+            try {
+                return ic.proceed();
+            } finally {
+                Deadline.restore(previous);
+                synchronized (this) {
+                    runner = null;
+                    done = true;
+                    if (interrupted) { // don't leak our interruption to the next task of the pool thread
+                        Thread.interrupted();
+                    }
+                }
+            }
+        }
+
+        private void onCompletion(final Throwable error) {
+            if (!CancellationException.class.isInstance(error) && !TimeoutException.class.isInstance(error)) {
+                return;
+            }
+            final Future<?> future = cancelHook.get();
+            if (future != null) {
+                future.cancel(true);
+            }
+            synchronized (this) {
+                if (runner != null) {
+                    runner.interrupt();
+                    interrupted = true;
+                }
+                done = true;
+            }
+        }
     }
 }
@@ -0,0 +1,79 @@
+package com.github.rmannibucau.mylang.lock.api;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Semaphore adjusting its permits from the latency of the calls it guards (AIMD):
+ * while latency stays close to the lowest observed one and the permits are used the limit
+ * grows by one, when latency exceeds twice the lowest one the limit is reduced by 10%.
+ * The lowest latency is periodically reset to follow backend changes.
+ */
+public class AdaptiveSemaphore extends Semaphore {
+    private static final double TOLERANCE = 2.;
+    private static final double BACKOFF_RATIO = .9;
+    private static final int MIN_LATENCY_RESET_INTERVAL = 1000;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger limit;
+    private final AtomicInteger samples = new AtomicInteger();
+    private final AtomicLong minLatency = new AtomicLong(Long.MAX_VALUE);
+    private volatile long lastDecrease = System.nanoTime();
+
+    public AdaptiveSemaphore(final int initialLimit, final int minLimit, final int maxLimit, final boolean fair) {
+        super(initialLimit, fair);
+        if (minLimit <= 0 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Invalid limits, ensure 0 < min <= initial <= max");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = new AtomicInteger(initialLimit);
+    }
+
+    /**
+     * @return the current number of permits of the semaphore (acquired or not).
+     */
+    public int getLimit() {
+        return limit.get();
+    }
+
+    /**
+     * Must be called before releasing the permits of the measured call.
+     *
+     * @param latency the duration of the call in nanoseconds.
+     */
+    public void onSample(final long latency) {
+        final long min;
+        if (samples.incrementAndGet() % MIN_LATENCY_RESET_INTERVAL == 0) {
+            minLatency.set(latency);
+            min = latency;
+        } else {
+            min = minLatency.accumulateAndGet(latency, Math::min);
+        }
+
+        final int current = limit.get();
+        if (latency > min * TOLERANCE) {
+            final long now = System.nanoTime();
+            if (now - lastDecrease < latency) { // decrease at most once per call duration
+                return;
+            }
+            lastDecrease = now;
+            update(current, Math.max(minLimit, (int) (current * BACKOFF_RATIO)));
+        } else if (current - availablePermits() >= current / 2) { // only grow if the limit is actually used
+            update(current, Math.min(maxLimit, current + 1));
+        }
+    }
+
+    private void update(final int current, final int next) {
+        if (next == current || !limit.compareAndSet(current, next)) {
+            return;
+        }
+        if (next > current) {
+            release(next - current);
+        } else {
+            reducePermits(current - next);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.github.rmannibucau.mylang.lock.api;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Read/write lock for asynchronous code: acquiring returns a future completed once the lock is granted
+ * so waiters are continuations in a queue instead of parked threads. It is not reentrant and
+ * the lock is released with unlockRead()/unlockWrite() from any thread.
+ *
+ * Acquisition is a CAS on the state while nobody waits, the queue lock is only taken to wait
+ * and to hand the lock to the waiters. Waiters are served in order, consecutive readers together.
+ * Granted continuations run in the releasing thread, outside of the queue lock and without nesting
+ * when they release synchronously.
+ *
+ * Completing or cancelling a pending acquisition future (on timeout for instance) withdraws the waiter.
+ */
+public class AsyncReadWriteLock {
+    private static final int WRITE_LOCKED = -1;
+    // shared by all the locks so continuations locking another lock don't nest either, waiters know their lock
+    private static final ThreadLocal<Deque<Waiter>> GRANTING = new ThreadLocal<>();
+
+    private final AtomicInteger state = new AtomicInteger(); // number of readers or WRITE_LOCKED
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Deque<Waiter> waiters = new ArrayDeque<>(); // guarded by lock
+
+    public CompletableFuture<Void> readLock() {
+        return acquire(false);
+    }
+
+    public CompletableFuture<Void> writeLock() {
+        return acquire(true);
+    }
+
+    public boolean tryReadLock() {
+        return waiting.get() == 0 && tryTake(false);
+    }
+
+    public boolean tryWriteLock() {
+        return waiting.get() == 0 && tryTake(true);
+    }
+
+    public void unlockRead() {
+        release(false);
+    }
+
+    public void unlockWrite() {
+        release(true);
+    }
+
+    public boolean isWriteLocked() {
+        return state.get() == WRITE_LOCKED;
+    }
+
+    public int getReadLockCount() {
+        return Math.max(0, state.get());
+    }
+
+    public int getWaiterCount() {
+        return waiting.get();
+    }
+
+    /**
+     * @param write true for the write lock.
+     * @return a future completed when the lock is acquired, the lock must be released only if it succeeded.
+     */
+    public CompletableFuture<Void> acquire(final boolean write) {
+        if (waiting.get() == 0 && tryTake(write)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final Waiter waiter = new Waiter(this, write);
+        final List<Waiter> granted;
+        lock.lock();
+        try {
+            waiters.addLast(waiter);
+            waiting.incrementAndGet();
+            granted = dispatch(); // the lock can have been released before we were visible
+        } finally {
+            lock.unlock();
+        }
+        grant(granted);
+        if (!waiter.isDone()) {
+            waiter.whenComplete((ignored, error) -> {
+                if (error != null) {
+                    withdraw(waiter);
+                }
+            });
+        }
+        return waiter;
+    }
+
+    private void release(final boolean write) {
+        if (write) {
+            if (!state.compareAndSet(WRITE_LOCKED, 0)) {
+                throw new IllegalStateException("Write lock not held");
+            }
+        } else {
+            int current;
+            do {
+                current = state.get();
+                if (current <= 0) {
+                    throw new IllegalStateException("Read lock not held");
+                }
+            } while (!state.compareAndSet(current, current - 1));
+        }
+        if (waiting.get() > 0) {
+            final List<Waiter> granted;
+            lock.lock();
+            try {
+                granted = dispatch();
+            } finally {
+                lock.unlock();
+            }
+            grant(granted);
+        }
+    }
+
+    private void withdraw(final Waiter waiter) {
+        final List<Waiter> granted;
+        lock.lock();
+        try {
+            if (!waiters.remove(waiter)) {
+                return;
+            }
+            waiting.decrementAndGet();
+            granted = dispatch(); // the waiter can have blocked readers behind it
+        } finally {
+            lock.unlock();
+        }
+        grant(granted);
+    }
+
+    // under lock, in order: a reader never passes a waiting writer
+    private List<Waiter> dispatch() {
+        List<Waiter> granted = null;
+        Waiter head;
+        while ((head = waiters.peekFirst()) != null) {
+            if (head.isDone()) { // withdrawn, its callback will not find it anymore
+                waiters.pollFirst();
+                waiting.decrementAndGet();
+                continue;
+            }
+            if (!tryTake(head.write)) {
+                break;
+            }
+            waiters.pollFirst();
+            waiting.decrementAndGet();
+            if (granted == null) {
+                granted = new ArrayList<>();
+            }
+            granted.add(head);
+        }
+        return granted;
+    }
+
+    // completes outside of the lock, a continuation releasing synchronously only queues its grants
+    private void grant(final List<Waiter> granted) {
+        if (granted == null) {
+            return;
+        }
+        Deque<Waiter> pending = GRANTING.get();
+        if (pending != null) {
+            pending.addAll(granted);
+            return;
+        }
+        pending = new ArrayDeque<>(granted);
+        GRANTING.set(pending);
+        try {
+            Waiter waiter;
+            while ((waiter = pending.pollFirst()) != null) {
+                if (!waiter.complete(null)) { // withdrawn after the lock was taken for it
+                    waiter.owner.release(waiter.write);
+                }
+            }
+        } finally {
+            GRANTING.remove();
+        }
+    }
+
+    private boolean tryTake(final boolean write) {
+        if (write) {
+            return state.compareAndSet(0, WRITE_LOCKED);
+        }
+        int current;
+        while ((current = state.get()) >= 0) {
+            if (state.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Waiter extends CompletableFuture<Void> {
+        private final AsyncReadWriteLock owner;
+        private final boolean write;
+
+        private Waiter(final AsyncReadWriteLock owner, final boolean write) {
+            this.owner = owner;
+            this.write = write;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.rmannibucau.mylang.lock.api;
+
+import javax.enterprise.util.Nonbinding;
+import javax.interceptor.InterceptorBinding;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Concurrent calls of the same method with equal parameters share a single execution:
+ * the first caller runs the method and the others wait for its result or exception.
+ */
+@InterceptorBinding
+@Retention(RUNTIME)
+@Target({TYPE, METHOD})
+public @interface Coalesced {
+    /**
+     * @return indices of the parameters identifying a call, empty means all parameters.
+     */
+    @Nonbinding
+    int[] keyParameters() default {};
+
+    /**
+     * @return how long a caller waits for the running execution, 0 means no timeout.
+     */
+    @Nonbinding
+    long timeout() default 0L;
+
+    @Nonbinding
+    TimeUnit timeoutUnit() default TimeUnit.MILLISECONDS;
+}
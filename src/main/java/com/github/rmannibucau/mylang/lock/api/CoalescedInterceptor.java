@@ -0,0 +1,154 @@
+package com.github.rmannibucau.mylang.lock.api;
+
+import com.github.rmannibucau.mylang.cdi.api.MetadataExtension;
+import com.github.rmannibucau.mylang.cdi.api.MetadataExtension.InterceptedMethod;
+import com.github.rmannibucau.mylang.cdi.api.MethodKey;
+import com.github.rmannibucau.mylang.cdi.api.MethodMetadata;
+
+import javax.annotation.Priority;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.enterprise.inject.Typed;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.inject.Inject;
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.Interceptor;
+import javax.interceptor.InvocationContext;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+@Coalesced
+@Interceptor
+// before @Locked and @Throttled so only the leader of a flight acquires them
+@Priority(Interceptor.Priority.LIBRARY_BEFORE - 1)
+public class CoalescedInterceptor implements Serializable {
+    @Inject
+    private Flights flights;
+
+    @AroundInvoke
+    public Object invoke(final InvocationContext ic) throws Exception {
+        return flights.getOrCreateInvocation(ic.getMethod()).invoke(ic);
+    }
+
+    @ApplicationScoped
+    @Typed(Flights.class)
+    static class Flights {
+        // shared by all the interceptor instances, keys are method + parameters
+        private final ConcurrentMap<MethodKey, Flight> inFlight = new ConcurrentHashMap<>();
+        private final MethodMetadata<Invocation> invocations = new MethodMetadata<>(this::createInvocation);
+
+        @Inject
+        private BeanManager beanManager;
+
+        @Inject
+        private MetadataExtension extension;
+
+        void init(@Observes @Initialized(ApplicationScoped.class) final Object start) {
+            invocations.init(extension, Coalesced.class);
+        }
+
+        Invocation getOrCreateInvocation(final Method method) {
+            return invocations.get(beanManager, method);
+        }
+
+        private Invocation createInvocation(final Method method, final InterceptedMethod interceptedMethod) {
+            final Coalesced coalesced = interceptedMethod.getAnnotation(Coalesced.class);
+            final int[] keyParameters = coalesced.keyParameters().length == 0 ? null : coalesced.keyParameters();
+            if (keyParameters != null) {
+                for (final int parameter : keyParameters) {
+                    if (parameter < 0 || parameter >= method.getParameterCount()) {
+                        throw new IllegalArgumentException("No parameter " + parameter + " for " + method);
+                    }
+                }
+            }
+            return new Invocation(inFlight, keyParameters, coalesced.timeoutUnit().toMillis(coalesced.timeout()));
+        }
+    }
+
+    private static final class Invocation {
+        private final ConcurrentMap<MethodKey, Flight> inFlight;
+        private final int[] keyParameters;
+        private final long timeout;
+
+        private Invocation(final ConcurrentMap<MethodKey, Flight> inFlight, final int[] keyParameters, final long timeout) {
+            this.inFlight = inFlight;
+            this.keyParameters = keyParameters;
+            this.timeout = timeout;
+        }
+
+        private Object invoke(final InvocationContext context) throws Exception {
+            final MethodKey key = new MethodKey(context.getMethod(), keyOf(context.getParameters()));
+            Flight flight = inFlight.get(key);
+            if (flight == null) {
+                final Flight newFlight = new Flight(Thread.currentThread());
+                flight = inFlight.putIfAbsent(key, newFlight);
+                if (flight == null) {
+                    return lead(context, key, newFlight);
+                }
+            }
+            if (flight.leader == Thread.currentThread()) { // reentrant call, waiting would be a deadlock
+                return context.proceed();
+            }
+            return await(context, flight);
+        }
+
+        private Object lead(final InvocationContext context, final MethodKey key, final Flight flight) throws Exception {
+            try {
+                final Object result = context.proceed();
+                inFlight.remove(key, flight);
+                flight.complete(result);
+                return result;
+            } catch (final Exception | Error e) {
+                inFlight.remove(key, flight);
+                flight.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        private Object await(final InvocationContext context, final Flight flight) throws Exception {
+            try {
+                return timeout > 0 ? flight.get(timeout, TimeUnit.MILLISECONDS) : flight.get();
+            } catch (final ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (Exception.class.isInstance(cause)) {
+                    throw Exception.class.cast(cause);
+                }
+                if (Error.class.isInstance(cause)) {
+                    throw Error.class.cast(cause);
+                }
+                throw new IllegalStateException(cause);
+            } catch (final TimeoutException e) {
+                throw new IllegalStateException("Can't get the result of " + context.getMethod() + " in " + timeout + "ms");
+            } catch (final InterruptedException e) {
+                Thread.interrupted();
+                throw new IllegalStateException("Waiting for " + context.getMethod() + " interrupted", e);
+            }
+        }
+
+        private Object[] keyOf(final Object[] parameters) {
+            if (keyParameters == null) {
+                return parameters.clone();
+            }
+            final Object[] key = new Object[keyParameters.length];
+            for (int i = 0; i < keyParameters.length; i++) {
+                key[i] = parameters[keyParameters[i]];
+            }
+            return key;
+        }
+    }
+
+    private static final class Flight extends CompletableFuture<Object> {
+        private final Thread leader;
+
+        private Flight(final Thread leader) {
+            this.leader = leader;
+        }
+    }
+}
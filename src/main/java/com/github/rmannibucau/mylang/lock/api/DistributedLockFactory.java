@@ -0,0 +1,73 @@
+package com.github.rmannibucau.mylang.lock.api;
+
+import com.github.rmannibucau.mylang.thread.api.ThreadPoolManager;
+
+import javax.enterprise.inject.spi.AnnotatedMethod;
+import javax.inject.Inject;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * LockFactory creating locks held cluster wide (one per bean or per stripe) through the leases of a LockStore.
+ * Subclass it as a bean with the store of the cluster and reference it in @Locked(factory = ...),
+ * the leases are renewed on the ThreadPoolManager timer:
+ *
+ * <pre>
+ * &#64;ApplicationScoped
+ * public class ClusterLocks extends DistributedLockFactory {
+ *     public ClusterLocks() {
+ *         super(new MyLockStore(), 30, TimeUnit.SECONDS);
+ *     }
+ * }
+ * </pre>
+ */
+public class DistributedLockFactory implements LockFactory {
+    private final ConcurrentMap<String, ReadWriteLock> locks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ReadWriteLock[]> stripedLocks = new ConcurrentHashMap<>();
+    private final LockStore store;
+    private final String owner;
+    private final long lease;
+    private final TimeUnit leaseUnit;
+
+    @Inject
+    private ThreadPoolManager manager;
+
+    /**
+     * @param store the shared leases.
+     * @param lease lease duration, a node pausing longer loses its leases.
+     * @param leaseUnit lease duration unit.
+     */
+    public DistributedLockFactory(final LockStore store, final long lease, final TimeUnit leaseUnit) {
+        this(store, UUID.randomUUID().toString(), lease, leaseUnit);
+    }
+
+    public DistributedLockFactory(final LockStore store, final String owner, final long lease, final TimeUnit leaseUnit) {
+        this.store = store;
+        this.owner = owner;
+        this.lease = lease;
+        this.leaseUnit = leaseUnit;
+    }
+
+    @Override
+    public ReadWriteLock newLock(final AnnotatedMethod<?> method, final boolean fair) {
+        return locks.computeIfAbsent(method.getJavaMember().getDeclaringClass().getName(), name -> newLock(name, fair));
+    }
+
+    @Override
+    public ReadWriteLock[] newLocks(final AnnotatedMethod<?> method, final boolean fair, final int stripes) {
+        return stripedLocks.computeIfAbsent(method.getJavaMember().getDeclaringClass().getName() + '#' + stripes, name -> {
+            final ReadWriteLock[] created = new ReadWriteLock[stripes];
+            for (int i = 0; i < stripes; i++) {
+                created[i] = newLock(name + '#' + i, fair);
+            }
+            return created;
+        });
+    }
+
+    private DistributedReadWriteLock newLock(final String name, final boolean fair) {
+        return new DistributedReadWriteLock(store, name, owner, lease, leaseUnit, manager.getTimer(), fair);
+    }
+}
@@ -0,0 +1,296 @@
+package com.github.rmannibucau.mylang.lock.api;
+
+import com.github.rmannibucau.mylang.thread.api.TimerWheel;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * ReadWriteLock held cluster wide through leases of a LockStore.
+ *
+ * A local ReentrantReadWriteLock handles the threads of the node: re-entrant acquisitions don't hit the store
+ * and the local readers share a single read lease, taken by the first one and released by the last one,
+ * so only the first local reader or writer does a round trip.
+ * Leases are renewed while held, if one expires anyway (node pause) the fencing token of the write lease
+ * lets the protected resource reject the late writes. A lease whose renewal is refused, or which expires while
+ * the store is unavailable, is dropped: getFencingToken() returns 0 and the next reader leases again.
+ *
+ * Conditions are not supported.
+ */
+public class DistributedReadWriteLock implements ReadWriteLock {
+    private static final long RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final LockStore store;
+    private final String name;
+    private final String owner;
+    private final long leaseNanos;
+    private final TimerWheel renewer;
+    private final ReentrantReadWriteLock local;
+    private final ReentrantLock leaseLock = new ReentrantLock(); // serializes the store calls of this node
+    private final Lock readLock = new LeasedLock(false);
+    private final Lock writeLock = new LeasedLock(true);
+
+    // guarded by leaseLock
+    private int readers;
+    private long readToken;
+    private long readExpiry;
+    private volatile long writeToken;
+    private long writeExpiry;
+    private TimerWheel.Timeout renewal;
+    private long renewals; // identifies the current renewal chain, a cancelled one can already be running
+
+    /**
+     * @param store the shared leases.
+     * @param name the lock name, shared by the nodes.
+     * @param owner the node identifier.
+     * @param lease lease duration.
+     * @param leaseUnit lease duration unit.
+     * @param renewer timer renewing the leases every third of their duration, null to not renew them.
+     * @param fair is the local lock fair.
+     */
+    public DistributedReadWriteLock(final LockStore store, final String name, final String owner,
+                                    final long lease, final TimeUnit leaseUnit,
+                                    final TimerWheel renewer, final boolean fair) {
+        this.store = store;
+        this.name = name;
+        this.owner = owner;
+        this.leaseNanos = leaseUnit.toNanos(lease);
+        this.renewer = renewer;
+        this.local = new ReentrantReadWriteLock(fair);
+    }
+
+    /**
+     * @return the fencing token of the write lease held by this node, 0 if none or if the lease was lost.
+     * Send it with the writes so the resource can reject the ones of an expired lease.
+     */
+    public long getFencingToken() {
+        return writeToken;
+    }
+
+    @Override
+    public Lock readLock() {
+        return readLock;
+    }
+
+    @Override
+    public Lock writeLock() {
+        return writeLock;
+    }
+
+    // timeoutNanos < 0 means no timeout
+    private boolean acquire(final boolean write, final long timeoutNanos) throws InterruptedException {
+        final long deadline = System.nanoTime() + timeoutNanos;
+        final Lock lock = write ? local.writeLock() : local.readLock();
+        if (timeoutNanos < 0) {
+            lock.lockInterruptibly();
+        } else if (!lock.tryLock(timeoutNanos, TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+        boolean leased = false;
+        try {
+            leased = (write && local.getWriteHoldCount() > 1) || lease(write, deadline, timeoutNanos < 0);
+            return leased;
+        } finally {
+            if (!leased) {
+                lock.unlock();
+            }
+        }
+    }
+
+    private boolean lease(final boolean write, final long deadline, final boolean forever) throws InterruptedException {
+        if (forever) {
+            leaseLock.lockInterruptibly();
+        } else if (!leaseLock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+        try {
+            if (write) {
+                final long token = poll(true, deadline, forever);
+                if (token == 0) {
+                    return false;
+                }
+                writeToken = token;
+                writeExpiry = System.nanoTime() + leaseNanos;
+            } else {
+                if (readToken == 0) { // first local reader or the shared lease was lost
+                    final long token = poll(false, deadline, forever);
+                    if (token == 0) {
+                        return false;
+                    }
+                    readToken = token;
+                    readExpiry = System.nanoTime() + leaseNanos;
+                }
+                readers++;
+            }
+            if (renewal == null && renewer != null) {
+                scheduleRenewal(++renewals);
+            }
+            return true;
+        } finally {
+            leaseLock.unlock();
+        }
+    }
+
+    private long poll(final boolean write, final long deadline, final boolean forever) throws InterruptedException {
+        while (true) {
+            final long token = store.tryAcquire(name, owner, write, leaseNanos);
+            if (token != 0) {
+                return token;
+            }
+            final long remaining = forever ? RETRY_NANOS : deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return 0;
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.min(remaining, RETRY_NANOS));
+        }
+    }
+
+    private void release(final boolean write) {
+        leaseLock.lock();
+        try {
+            if (write) {
+                if (local.getWriteHoldCount() == 1 && writeToken != 0) {
+                    store.release(name, owner, writeToken);
+                    writeToken = 0;
+                }
+            } else if (--readers == 0 && readToken != 0) {
+                store.release(name, owner, readToken);
+                readToken = 0;
+            }
+            if (readToken == 0 && writeToken == 0 && renewal != null) {
+                renewal.cancel();
+                renewal = null;
+            }
+        } finally {
+            leaseLock.unlock();
+        }
+        if (write) {
+            local.writeLock().unlock();
+        } else {
+            local.readLock().unlock();
+        }
+    }
+
+    // guarded by leaseLock
+    private void scheduleRenewal(final long chain) {
+        try {
+            // the timer thread is shared and must stay fast, the store calls run out of it
+            renewal = renewer.schedule(() -> {
+                try {
+                    ForkJoinPool.commonPool().execute(() -> renew(chain));
+                } catch (final RejectedExecutionException ree) {
+                    renew(chain);
+                }
+            }, Math.max(1, leaseNanos / 3), TimeUnit.NANOSECONDS);
+        } catch (final IllegalStateException ise) { // timer stopped, the application is shutting down
+            renewal = null;
+        }
+    }
+
+    private void renew(final long chain) {
+        leaseLock.lock();
+        try { // a failed renewal can't stop the running calls, the fencing token protects the resource
+            if (renewal == null || chain != renewals) { // released meanwhile
+                return;
+            }
+            renew(true);
+            renew(false);
+            if (readToken == 0 && writeToken == 0) {
+                renewal = null;
+            } else {
+                scheduleRenewal(chain);
+            }
+        } finally {
+            leaseLock.unlock();
+        }
+    }
+
+    // guarded by leaseLock, drops a lost lease, an unavailable store is retried at next period until the lease expires
+    private void renew(final boolean write) {
+        final long token = write ? writeToken : readToken;
+        if (token == 0) {
+            return;
+        }
+        boolean renewed;
+        try {
+            renewed = store.renew(name, owner, token, leaseNanos);
+        } catch (final RuntimeException re) {
+            if (System.nanoTime() - (write ? writeExpiry : readExpiry) < 0) {
+                return;
+            }
+            renewed = false;
+        }
+        if (renewed) {
+            final long expiry = System.nanoTime() + leaseNanos;
+            if (write) {
+                writeExpiry = expiry;
+            } else {
+                readExpiry = expiry;
+            }
+        } else if (write) {
+            writeToken = 0;
+        } else {
+            readToken = 0;
+        }
+    }
+
+    private final class LeasedLock implements Lock {
+        private final boolean write;
+
+        private LeasedLock(final boolean write) {
+            this.write = write;
+        }
+
+        @Override
+        public void lock() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    acquire(write, -1);
+                    break;
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            acquire(write, -1);
+        }
+
+        @Override
+        public boolean tryLock() {
+            try {
+                return acquire(write, 0);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        @Override
+        public boolean tryLock(final long time, final TimeUnit unit) throws InterruptedException {
+            return acquire(write, Math.max(0, unit.toNanos(time)));
+        }
+
+        @Override
+        public void unlock() {
+            release(write);
+        }
+
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException("Conditions are not supported by distributed locks");
+        }
+    }
+}
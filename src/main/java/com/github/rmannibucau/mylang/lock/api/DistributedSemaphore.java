@@ -0,0 +1,154 @@
+package com.github.rmannibucau.mylang.lock.api;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Semaphore sharing its permits across nodes through a PermitCoordinator.
+ * The local semaphore only holds leased permits: a node leases a block (batch) when it runs out
+ * and keeps up to a block of released permits, so most acquisitions stay local and a coordinator
+ * round trip is amortized over a block. Released permits above a block are given back to the cluster
+ * and giveBackIfIdle() gives back the block of a node which stopped releasing permits.
+ *
+ * When the coordinator has no free permit the waiters wait locally, a local release or lease wakes them up,
+ * and poll it with an exponential back off (10ms to 1s) to not flood it while the cluster is saturated.
+ * Only the acquire, tryAcquire and release flavors are cluster aware.
+ */
+public class DistributedSemaphore extends Semaphore {
+    private static final long MIN_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long MAX_POLL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final PermitCoordinator coordinator;
+    private final String name;
+    private final int permits;
+    private final int batch;
+    private final ReentrantLock leaseLock = new ReentrantLock(); // a single coordinator call per node at a time
+    private volatile long lastRelease = System.nanoTime();
+
+    /**
+     * @param coordinator the cluster permits.
+     * @param name the semaphore name, shared by the nodes.
+     * @param permits the cluster wide number of permits.
+     * @param batch number of permits leased at once.
+     * @param fair is the local semaphore fair.
+     */
+    public DistributedSemaphore(final PermitCoordinator coordinator, final String name, final int permits,
+                                final int batch, final boolean fair) {
+        super(0, fair);
+        if (batch <= 0) {
+            throw new IllegalArgumentException("batch should be positive: " + batch);
+        }
+        this.coordinator = coordinator;
+        this.name = name;
+        this.permits = permits;
+        this.batch = batch;
+    }
+
+    @Override
+    public void acquire() throws InterruptedException {
+        acquire(1);
+    }
+
+    @Override
+    public void acquire(final int weight) throws InterruptedException {
+        acquire(weight, false, 0);
+    }
+
+    @Override
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    @Override
+    public boolean tryAcquire(final int weight) {
+        return super.tryAcquire(weight) || (lease(weight) && super.tryAcquire(weight));
+    }
+
+    @Override
+    public boolean tryAcquire(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return tryAcquire(1, timeout, unit);
+    }
+
+    @Override
+    public boolean tryAcquire(final int weight, final long timeout, final TimeUnit unit) throws InterruptedException {
+        return acquire(weight, true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    @Override
+    public void release() {
+        release(1);
+    }
+
+    @Override
+    public void release(final int weight) {
+        lastRelease = System.nanoTime();
+        super.release(weight);
+        final int excess = availablePermits() - batch;
+        if (excess > 0 && super.tryAcquire(excess)) {
+            coordinator.giveBack(name, excess);
+        }
+    }
+
+    /**
+     * Gives back the permits not used by this node if it didn't release any permit for a while,
+     * else an idle node would keep its block and could starve the others.
+     *
+     * @param idleNanos how long the node must not have released a permit.
+     * @return true if the permits were given back.
+     */
+    public boolean giveBackIfIdle(final long idleNanos) {
+        if (System.nanoTime() - lastRelease < idleNanos || hasQueuedThreads()) {
+            return false;
+        }
+        giveBack();
+        return true;
+    }
+
+    /**
+     * Gives back the permits not used by this node, typically when it shuts down.
+     */
+    public void giveBack() {
+        final int unused = drainPermits();
+        if (unused > 0) {
+            coordinator.giveBack(name, unused);
+        }
+    }
+
+    private boolean acquire(final int weight, final boolean timed, final long deadline) throws InterruptedException {
+        long poll = MIN_POLL_NANOS;
+        while (true) {
+            if (super.tryAcquire(weight)) {
+                return true;
+            }
+            if (lease(weight)) {
+                continue;
+            }
+            final long remaining = timed ? deadline - System.nanoTime() : Long.MAX_VALUE;
+            if (remaining <= 0) {
+                return false;
+            }
+            // a local release or another thread lease wakes us up, else poll the coordinator again later
+            if (super.tryAcquire(weight, Math.min(remaining, poll), TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+            poll = Math.min(poll * 2, MAX_POLL_NANOS);
+        }
+    }
+
+    private boolean lease(final int weight) {
+        if (!leaseLock.tryLock()) { // another thread is leasing for this node, its permits will be released locally
+            return false;
+        }
+        try {
+            final int granted = coordinator.lease(name, permits, Math.max(weight, batch));
+            if (granted > 0) {
+                super.release(granted);
+                return true;
+            }
+            return false;
+        } finally {
+            leaseLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.github.rmannibucau.mylang.lock.api;
+
+import com.github.rmannibucau.mylang.thread.api.ThreadPoolManager;
+import com.github.rmannibucau.mylang.thread.api.TimerWheel;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.inject.spi.AnnotatedMethod;
+import javax.inject.Inject;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SemaphoreFactory sharing the permits of a Throttling name across nodes. Subclass it as a bean
+ * with the coordinator of the cluster and reference it in @Throttling(factory = ...).
+ * The permits kept by an idle node are given back after the idle timeout (1s by default),
+ * checked on the ThreadPoolManager timer:
+ *
+ * <pre>
+ * &#64;ApplicationScoped
+ * public class ClusterThrottling extends DistributedSemaphoreFactory {
+ *     public ClusterThrottling() {
+ *         super(new MyCoordinator(), 4);
+ *     }
+ * }
+ * </pre>
+ */
+public class DistributedSemaphoreFactory implements SemaphoreFactory {
+    private final ConcurrentMap<String, DistributedSemaphore> semaphores = new ConcurrentHashMap<>();
+    private final PermitCoordinator coordinator;
+    private final int batch;
+    private final long idleNanos;
+    private volatile TimerWheel.Timeout idleCheck;
+    private volatile boolean destroyed;
+
+    @Inject
+    private ThreadPoolManager manager;
+
+    /**
+     * @param coordinator the cluster permits.
+     * @param batch number of permits leased at once, bigger means less coordinator calls but
+     *              more permits idling on a node.
+     */
+    public DistributedSemaphoreFactory(final PermitCoordinator coordinator, final int batch) {
+        this(coordinator, batch, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param coordinator the cluster permits.
+     * @param batch number of permits leased at once.
+     * @param idleTimeout duration without release after which a node gives back its permits.
+     * @param unit idle timeout unit.
+     */
+    public DistributedSemaphoreFactory(final PermitCoordinator coordinator, final int batch,
+                                       final long idleTimeout, final TimeUnit unit) {
+        if (idleTimeout <= 0) {
+            throw new IllegalArgumentException("idleTimeout should be positive: " + idleTimeout);
+        }
+        this.coordinator = coordinator;
+        this.batch = batch;
+        this.idleNanos = unit.toNanos(idleTimeout);
+    }
+
+    @Override
+    public Semaphore newSemaphore(final AnnotatedMethod<?> method, final String name, final boolean fair, final int permits) {
+        final DistributedSemaphore semaphore = semaphores.computeIfAbsent(
+            name, key -> new DistributedSemaphore(coordinator, name, permits, Math.min(batch, permits), fair));
+        startIdleChecker();
+        return semaphore;
+    }
+
+    @PreDestroy
+    public void destroy() { // let other nodes use our permits
+        destroyed = true;
+        final TimerWheel.Timeout timeout = idleCheck;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        semaphores.values().forEach(DistributedSemaphore::giveBack);
+    }
+
+    public Collection<DistributedSemaphore> getSemaphores() {
+        return semaphores.values();
+    }
+
+    private void startIdleChecker() {
+        if (idleCheck == null) {
+            synchronized (this) {
+                if (idleCheck == null && !destroyed) {
+                    scheduleIdleCheck();
+                }
+            }
+        }
+    }
+
+    private void scheduleIdleCheck() {
+        // the timer thread is shared and must stay fast, the coordinator calls run out of it
+        idleCheck = manager.getTimer().schedule(() -> {
+            try {
+                ForkJoinPool.commonPool().execute(this::checkIdle);
+            } catch (final RejectedExecutionException ree) {
+                checkIdle();
+            }
+        }, Math.max(1, idleNanos / 2), TimeUnit.NANOSECONDS);
+    }
+
+    private void checkIdle() {
+        if (destroyed) {
+            return;
+        }
+        try {
+            semaphores.values().forEach(semaphore -> {
+                try {
+                    semaphore.giveBackIfIdle(idleNanos);
+                } catch (final RuntimeException re) {
+                    // coordinator unavailable, retried at next check
+                }
+            });
+        } finally {
+            if (!destroyed) {
+                try {
+                    scheduleIdleCheck();
+                } catch (final IllegalStateException ise) {
+                    // timer stopped, the application is shutting down
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.rmannibucau.mylang.lock.api;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * In process lock store, nodes are simulated by sharing the instance. Useful for tests and single node setups.
+ * Leases of the same owner are compatible (a writer can also read).
+ */
+public class InMemoryLockStore implements LockStore {
+    private final Map<String, State> states = new HashMap<>();
+
+    @Override
+    public synchronized long tryAcquire(final String name, final String owner, final boolean write, final long leaseNanos) {
+        final State state = states.computeIfAbsent(name, k -> new State());
+        final long now = System.nanoTime();
+        state.purge(now);
+        if (state.writer != null && !state.writer.owner.equals(owner)) {
+            return 0;
+        }
+        if (write) {
+            if (state.writer != null || state.readers.values().stream().anyMatch(l -> !l.owner.equals(owner))) {
+                return 0;
+            }
+            state.writer = new Lease(owner, ++state.sequence, now + leaseNanos);
+            return state.writer.token;
+        }
+        final Lease lease = new Lease(owner, ++state.sequence, now + leaseNanos);
+        state.readers.put(lease.token, lease);
+        return lease.token;
+    }
+
+    @Override
+    public synchronized boolean renew(final String name, final String owner, final long token, final long leaseNanos) {
+        final State state = states.get(name);
+        if (state == null) {
+            return false;
+        }
+        final long now = System.nanoTime();
+        state.purge(now);
+        final Lease lease = state.find(owner, token);
+        if (lease == null) {
+            return false;
+        }
+        lease.expireAt = now + leaseNanos;
+        return true;
+    }
+
+    @Override
+    public synchronized void release(final String name, final String owner, final long token) {
+        final State state = states.get(name);
+        if (state == null) {
+            return;
+        }
+        if (state.writer != null && state.writer.token == token && state.writer.owner.equals(owner)) {
+            state.writer = null;
+        } else {
+            state.readers.remove(token);
+        }
+    }
+
+    public synchronized long getLastToken(final String name) {
+        final State state = states.get(name);
+        return state == null ? 0 : state.sequence;
+    }
+
+    private static final class State {
+        private long sequence;
+        private Lease writer;
+        private final Map<Long, Lease> readers = new HashMap<>();
+
+        private void purge(final long now) {
+            if (writer != null && writer.expireAt - now <= 0) {
+                writer = null;
+            }
+            final Iterator<Lease> iterator = readers.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().expireAt - now <= 0) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        private Lease find(final String owner, final long token) {
+            final Lease lease = writer != null && writer.token == token ? writer : readers.get(token);
+            return lease != null && lease.owner.equals(owner) ? lease : null;
+        }
+    }
+
+    private static final class Lease {
+        private final String owner;
+        private final long token;
+        private long expireAt;
+
+        private Lease(final String owner, final long token, final long expireAt) {
+            this.owner = owner;
+            this.token = token;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.github.rmannibucau.mylang.lock.api;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In process coordinator, nodes are simulated by sharing the instance. Useful for tests and single node setups.
+ */
+public class InMemoryPermitCoordinator implements PermitCoordinator {
+    private final Map<String, Integer> leased = new HashMap<>();
+
+    @Override
+    public synchronized int lease(final String name, final int permits, final int requested) {
+        final int current = leased.getOrDefault(name, 0);
+        final int granted = Math.max(0, Math.min(requested, permits - current));
+        if (granted > 0) {
+            leased.put(name, current + granted);
+        }
+        return granted;
+    }
+
+    @Override
+    public synchronized void giveBack(final String name, final int permits) {
+        final int remaining = leased.getOrDefault(name, 0) - permits;
+        if (remaining < 0) {
+            throw new IllegalArgumentException("More permits given back than leased for " + name);
+        }
+        leased.put(name, remaining);
+    }
+
+    public synchronized int getLeased(final String name) {
+        return leased.getOrDefault(name, 0);
+    }
+}
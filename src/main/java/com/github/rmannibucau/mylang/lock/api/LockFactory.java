@@ -1,8 +1,21 @@
 package com.github.rmannibucau.mylang.lock.api;
 
 import javax.enterprise.inject.spi.AnnotatedMethod;
+import java.util.Arrays;
 import java.util.concurrent.locks.ReadWriteLock;
 
 public interface LockFactory {
     ReadWriteLock newLock(final AnnotatedMethod<?> method, final boolean fair);
+
+    /**
+     * @param method the locked method.
+     * @param fair should locks be fair.
+     * @param stripes number of locks to create, always a power of two.
+     * @return the lock stripes, by default the same lock for all stripes (no striping).
+     */
+    default ReadWriteLock[] newLocks(final AnnotatedMethod<?> method, final boolean fair, final int stripes) {
+        final ReadWriteLock[] locks = new ReadWriteLock[stripes];
+        Arrays.fill(locks, newLock(method, fair));
+        return locks;
+    }
 }
@@ -0,0 +1,26 @@
+package com.github.rmannibucau.mylang.lock.api;
+
+/**
+ * Shared store of the cluster wide read/write leases. Calls are remote in a real deployment so they must not
+ * block on the lock, they just grant it if it is free.
+ *
+ * A lease is identified by its fencing token, it increases with each lease of a name so a protected resource
+ * can reject the writes of a node whose lease expired (the token it sends is lower than the last one seen).
+ */
+public interface LockStore {
+    /**
+     * @param name the lock name.
+     * @param owner the node requesting the lease.
+     * @param write true for an exclusive lease, false for a lease shared with the other readers.
+     * @param leaseNanos lease duration, the lease is lost if not renewed before.
+     * @return the fencing token of the lease or 0 if the lock is held by another owner.
+     */
+    long tryAcquire(String name, String owner, boolean write, long leaseNanos);
+
+    /**
+     * @return false if the lease already expired.
+     */
+    boolean renew(String name, String owner, long token, long leaseNanos);
+
+    void release(String name, String owner, long token);
+}
@@ -10,6 +10,13 @@ import static java.lang.annotation.ElementType.METHOD;
 import static java.lang.annotation.ElementType.TYPE;
 import static java.lang.annotation.RetentionPolicy.RUNTIME;
 
+/**
+ * Locks the calls of a bean. When all the locked methods of a class return a CompletionStage or CompletableFuture
+ * and use the default factory, a call keeps the lock until the returned stage completes: it uses an AsyncReadWriteLock
+ * so waiting calls are queued without blocking their thread and run in asyncPool() once granted.
+ * Otherwise these methods use the blocking lock of the bean, only held during the method call,
+ * so they still exclude the other methods of the bean.
+ */
 @InterceptorBinding
 @Retention(RUNTIME)
 @Target({TYPE, METHOD})
@@ -29,7 +36,41 @@ public @interface Locked {
     @Nonbinding
     TimeUnit timeoutUnit() default TimeUnit.MILLISECONDS;
 
+    /**
+     * @return index of the parameter used to select the lock stripe,
+     * a negative value means a single lock is used for the whole bean.
+     */
+    @Nonbinding
+    int stripeParameter() default -1;
+
+    /**
+     * @return number of stripes (rounded up to a power of two) used when stripeParameter is set.
+     * Striped methods only exclude each other, not the methods using the bean lock,
+     * and only when they use the same number of stripes.
+     */
+    @Nonbinding
+    int stripes() default 16;
+
+    /**
+     * @return name of the pool (see ThreadPoolManager) running the CompletionStage returning methods
+     * which waited for the lock, a method finding the lock free runs in the caller thread.
+     */
+    @Nonbinding
+    String asyncPool() default "locked";
+
     enum Operation {
-        READ, WRITE;
+        READ, WRITE,
+
+        /**
+         * Executes the method without locking and re-executes it under the read lock
+         * if a write happened concurrently. It requires a StampedReadWriteLock (see StampedLockFactory),
+         * the deployment fails otherwise.
+         *
+         * The re-execution calls InvocationContext.proceed() a second time so the interceptors after @Locked
+         * and the method run twice. Containers support it but the interceptor specification doesn't require it.
+         * The method must then be side effect free and idempotent and tolerate reading inconsistent state
+         * in its first execution, as the interceptors after this one.
+         */
+        OPTIMISTIC_READ
     }
 }
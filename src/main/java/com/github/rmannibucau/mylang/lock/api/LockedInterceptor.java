@@ -1,10 +1,20 @@
 package com.github.rmannibucau.mylang.lock.api;
 
+import com.github.rmannibucau.mylang.cdi.api.MetadataExtension;
+import com.github.rmannibucau.mylang.cdi.api.MetadataExtension.InterceptedMethod;
+import com.github.rmannibucau.mylang.cdi.api.MethodMetadata;
+import com.github.rmannibucau.mylang.metrics.api.ContentionMetrics;
+import com.github.rmannibucau.mylang.metrics.api.MetricsRegistry;
+import com.github.rmannibucau.mylang.thread.api.Deadline;
+import com.github.rmannibucau.mylang.thread.api.ThreadPoolManager;
+import com.github.rmannibucau.mylang.thread.api.TimerWheel;
+
 import javax.annotation.Priority;
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
 import javax.enterprise.inject.Typed;
 import javax.enterprise.inject.spi.AnnotatedMethod;
-import javax.enterprise.inject.spi.AnnotatedType;
 import javax.enterprise.inject.spi.BeanManager;
 import javax.inject.Inject;
 import javax.interceptor.AroundInvoke;
@@ -12,16 +22,24 @@ import javax.interceptor.Interceptor;
 import javax.interceptor.InvocationContext;
 import java.io.Serializable;
 import java.lang.reflect.Method;
-import java.util.Optional;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
 
-import static com.github.rmannibucau.mylang.lock.api.Locked.Operation.READ;
 import static java.util.Optional.of;
 
 @Locked
@@ -33,68 +51,458 @@ public class LockedInterceptor implements Serializable {
 
     @AroundInvoke
     public Object invoke(final InvocationContext ic) throws Exception {
-        final Lock l = locks.lockAcquirer(ic).get();
-        try {
-            return ic.proceed();
-        } finally {
-            l.unlock();
-        }
+        return locks.getOrCreateInvocation(ic).invoke(ic);
     }
 
     @ApplicationScoped
     @Typed(Locks.class)
     static class Locks implements LockFactory {
         private final ConcurrentMap<String, ReadWriteLock> locks = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, ReadWriteLock[]> stripedLocks = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, AsyncReadWriteLock> asyncLocks = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, AsyncReadWriteLock[]> asyncStripedLocks = new ConcurrentHashMap<>();
 
-        // read or write
-        private final ConcurrentMap<Method, Supplier<Lock>> lockOperations = new ConcurrentHashMap<>();
+        private final MethodMetadata<Invocation> invocations = new MethodMetadata<>(this::createInvocation);
 
         @Inject
         private BeanManager beanManager;
 
-        Supplier<Lock> lockAcquirer(final InvocationContext ic) {
-            return lockOperations.computeIfAbsent(ic.getMethod(), method -> {
-                final Class declaringClass = method.getDeclaringClass();
-                final AnnotatedType<Object> annotatedType = beanManager.createAnnotatedType(declaringClass);
-                final Optional<AnnotatedMethod<? super Object>> annotatedMethod = annotatedType.getMethods().stream()
-                    .filter(am -> am.getJavaMember().equals(method))
-                    .findFirst();
-
-                final Locked locked = annotatedMethod
-                    .map(am -> am.getAnnotation(Locked.class))
-                    .orElseGet(() -> annotatedType.getAnnotation(Locked.class));
-
-                final LockFactory factory = of(locked.factory()).filter(f -> f != LockFactory.class)
-                    .map(c -> LockFactory.class.cast(beanManager.getReference(beanManager.resolve(beanManager.getBeans(c)), LockFactory.class, null)))
-                    .orElse(this);
-
-                final ReadWriteLock writeLock = factory.newLock(annotatedMethod.orElseThrow(() -> new IllegalStateException("No annotated method for " + method)), locked.fair());
-                final long timeout = locked.timeoutUnit().toMillis(locked.timeout());
-                final Lock lock = locked.operation() == READ ? writeLock.readLock() : writeLock.writeLock();
-
-                if (timeout > 0) {
-                    return () -> {
-                        try {
-                            if (!lock.tryLock(timeout, TimeUnit.MILLISECONDS)) {
-                                throw new IllegalStateException("Can't lock for " + method + " in " + timeout + "ms");
-                            }
-                        } catch (final InterruptedException e) {
-                            Thread.interrupted();
-                            throw new IllegalStateException("Locking interrupted", e);
-                        }
-                        return lock;
-                    };
+        @Inject
+        private MetricsRegistry metrics;
+
+        @Inject
+        private MetadataExtension extension;
+
+        @Inject
+        private ThreadPoolManager manager;
+
+        void init(@Observes @Initialized(ApplicationScoped.class) final Object start) {
+            invocations.init(extension, Locked.class);
+        }
+
+        Invocation getOrCreateInvocation(final InvocationContext ic) {
+            return invocations.get(beanManager, ic.getMethod());
+        }
+
+        private Invocation createInvocation(final Method method, final InterceptedMethod interceptedMethod) {
+            final Class<?> declaringClass = method.getDeclaringClass();
+            final Locked locked = interceptedMethod.getAnnotation(Locked.class);
+            if (isAsync(method) && locked.factory() == LockFactory.class && hasOnlyAsyncLockedMethods(interceptedMethod, declaringClass)) {
+                return createAsyncInvocation(method, interceptedMethod, locked);
+            }
+
+            final LockFactory factory = of(locked.factory()).filter(f -> f != LockFactory.class)
+                .map(c -> LockFactory.class.cast(beanManager.getReference(beanManager.resolve(beanManager.getBeans(c)), LockFactory.class, null)))
+                .orElse(this);
+
+            final AnnotatedMethod<?> am = interceptedMethod.getMethod();
+            final LockSelector lockSelector;
+            final boolean stamped;
+            if (locked.stripeParameter() < 0) {
+                final ReadWriteLock lock = factory.newLock(am, locked.fair());
+                stamped = StampedReadWriteLock.class.isInstance(lock);
+                lockSelector = new LockSelector(lock, null, -1);
+            } else {
+                final int parameter = locked.stripeParameter();
+                if (parameter >= method.getParameterCount()) {
+                    throw new IllegalArgumentException("No parameter " + parameter + " for " + method);
                 }
-                return () -> {
-                    lock.lock();
-                    return lock;
-                };
-            });
+                final ReadWriteLock[] stripes = factory.newLocks(am, locked.fair(), powerOfTwo(locked.stripes()));
+                stamped = Stream.of(stripes).allMatch(StampedReadWriteLock.class::isInstance);
+                lockSelector = new LockSelector(null, stripes, parameter);
+            }
+
+            final long timeout = locked.timeoutUnit().toMillis(locked.timeout());
+            final ContentionMetrics lockMetrics = metrics.lock(declaringClass.getName());
+            switch (locked.operation()) {
+                case OPTIMISTIC_READ:
+                    if (!stamped) {
+                        throw optimisticReadNotSupported(method);
+                    }
+                    return new OptimisticInvocation(lockSelector, timeout, lockMetrics);
+                case READ:
+                    return new LockInvocation(lockSelector, false, timeout, lockMetrics);
+                default:
+                    return new LockInvocation(lockSelector, true, timeout, lockMetrics);
+            }
+        }
+
+        // the lock is held until the returned stage completes, the method must not block on it
+        private Invocation createAsyncInvocation(final Method method, final InterceptedMethod interceptedMethod, final Locked locked) {
+            if (locked.operation() == Locked.Operation.OPTIMISTIC_READ) {
+                throw optimisticReadNotSupported(method);
+            }
+            final String name = method.getDeclaringClass().getName();
+            final AsyncLockSelector lockSelector;
+            if (locked.stripeParameter() < 0) {
+                lockSelector = new AsyncLockSelector(asyncLocks.computeIfAbsent(name, key -> new AsyncReadWriteLock()), null, -1);
+            } else {
+                final int parameter = locked.stripeParameter();
+                if (parameter >= method.getParameterCount()) {
+                    throw new IllegalArgumentException("No parameter " + parameter + " for " + method);
+                }
+                lockSelector = new AsyncLockSelector(null, newStripes(
+                    asyncStripedLocks, interceptedMethod.getMethod(), powerOfTwo(locked.stripes()),
+                    AsyncReadWriteLock[]::new, AsyncReadWriteLock::new), parameter);
+            }
+            return new AsyncLockInvocation(
+                lockSelector, locked.operation() == Locked.Operation.WRITE, locked.timeoutUnit().toMillis(locked.timeout()),
+                metrics.lock(name), manager, locked.asyncPool());
+        }
+
+        private static IllegalArgumentException optimisticReadNotSupported(final Method method) {
+            return new IllegalArgumentException("OPTIMISTIC_READ of " + method + " requires a factory creating StampedReadWriteLock"
+                + " (see StampedLockFactory), use READ otherwise");
+        }
+
+        // the asynchronous lock doesn't exclude the blocking one of the class so it is only used when
+        // no method of the class takes the blocking one, else all the methods use the blocking lock
+        private static boolean hasOnlyAsyncLockedMethods(final InterceptedMethod interceptedMethod, final Class<?> declaringClass) {
+            final boolean onType = interceptedMethod.getType().isAnnotationPresent(Locked.class);
+            return interceptedMethod.getType().getMethods().stream()
+                .filter(m -> m.getJavaMember().getDeclaringClass() == declaringClass)
+                .filter(m -> !Modifier.isStatic(m.getJavaMember().getModifiers()) && !Modifier.isPrivate(m.getJavaMember().getModifiers()))
+                .filter(m -> onType || m.isAnnotationPresent(Locked.class))
+                .allMatch(m -> isAsync(m.getJavaMember()));
+        }
+
+        // exactly a CompletionStage or CompletableFuture, the interceptor returns its own CompletableFuture
+        private static boolean isAsync(final Method method) {
+            final Class<?> returnType = method.getReturnType();
+            return returnType == CompletionStage.class || returnType == CompletableFuture.class;
         }
 
         @Override
         public ReadWriteLock newLock(final AnnotatedMethod<?> method, final boolean fair) {
             return locks.computeIfAbsent(method.getJavaMember().getDeclaringClass().getName(), key -> new ReentrantReadWriteLock(fair));
         }
+
+        @Override
+        public ReadWriteLock[] newLocks(final AnnotatedMethod<?> method, final boolean fair, final int stripes) {
+            return newStripes(stripedLocks, method, stripes, () -> new ReentrantReadWriteLock(fair));
+        }
+
+        static ReadWriteLock[] newStripes(final ConcurrentMap<String, ReadWriteLock[]> registry, final AnnotatedMethod<?> method,
+                                          final int stripes, final Supplier<ReadWriteLock> lockFactory) {
+            return newStripes(registry, method, stripes, ReadWriteLock[]::new, lockFactory);
+        }
+
+        private static <T> T[] newStripes(final ConcurrentMap<String, T[]> registry, final AnnotatedMethod<?> method,
+                                          final int stripes, final IntFunction<T[]> arrayFactory, final Supplier<T> lockFactory) {
+            // methods of a bean share the stripes when they use the same number of stripes
+            return registry.computeIfAbsent(method.getJavaMember().getDeclaringClass().getName() + '#' + stripes, key -> {
+                final T[] array = arrayFactory.apply(stripes);
+                for (int i = 0; i < stripes; i++) {
+                    array[i] = lockFactory.get();
+                }
+                return array;
+            });
+        }
+
+        private static int stripe(final Object key, final int mask) {
+            if (key == null) {
+                return 0;
+            }
+            final int h = key.hashCode();
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private static int powerOfTwo(final int stripes) {
+            return stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        }
+    }
+
+    private static void onTimeout(final InvocationContext context, final long timeoutNanos, final ContentionMetrics metrics) {
+        throw timeoutError(context, timeoutNanos, metrics);
+    }
+
+    private static IllegalStateException timeoutError(final InvocationContext context, final long timeoutNanos, final ContentionMetrics metrics) {
+        if (metrics != null) {
+            metrics.onTimeout();
+        }
+        if (timeoutNanos == 0) {
+            return new IllegalStateException("Deadline exceeded before locking for " + context.getMethod());
+        }
+        return new IllegalStateException("Can't lock for " + context.getMethod() + " in " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms");
+    }
+
+    private static void onInterruption(final InterruptedException e) {
+        Thread.interrupted();
+        throw new IllegalStateException("Locking interrupted", e);
+    }
+
+    private interface Invocation {
+        Object invoke(InvocationContext context) throws Exception;
+    }
+
+    /**
+     * Resolves the lock of a call: the lock of the method or the stripe of the key parameter.
+     */
+    private static final class LockSelector {
+        private final ReadWriteLock lock;
+        private final ReadWriteLock[] stripes;
+        private final int parameter;
+        private final int mask;
+
+        private LockSelector(final ReadWriteLock lock, final ReadWriteLock[] stripes, final int parameter) {
+            this.lock = lock;
+            this.stripes = stripes;
+            this.parameter = parameter;
+            this.mask = stripes == null ? 0 : stripes.length - 1;
+        }
+
+        private ReadWriteLock select(final InvocationContext context) {
+            return stripes == null ? lock : stripes[Locks.stripe(context.getParameters()[parameter], mask)];
+        }
+    }
+
+    private static final class LockInvocation implements Invocation {
+        private final LockSelector lockSelector;
+        private final boolean write;
+        private final long timeout;
+        private final ContentionMetrics metrics;
+
+        private LockInvocation(final LockSelector lockSelector, final boolean write, final long timeout,
+                               final ContentionMetrics metrics) {
+            this.lockSelector = lockSelector;
+            this.write = write;
+            this.timeout = timeout;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public Object invoke(final InvocationContext context) throws Exception {
+            final ReadWriteLock readWriteLock = lockSelector.select(context);
+            final Lock lock = write ? readWriteLock.writeLock() : readWriteLock.readLock();
+            final long start = metrics != null ? System.nanoTime() : 0;
+            final long wait = Deadline.waitNanos(timeout);
+            if (wait >= 0) {
+                try {
+                    if (wait == 0 || !lock.tryLock(wait, TimeUnit.NANOSECONDS)) {
+                        onTimeout(context, wait, metrics);
+                    }
+                } catch (final InterruptedException e) {
+                    onInterruption(e);
+                }
+            } else {
+                lock.lock();
+            }
+            final long acquired = metrics != null ? System.nanoTime() : 0;
+            try {
+                return context.proceed();
+            } finally {
+                lock.unlock();
+                if (metrics != null) {
+                    metrics.onAcquired(acquired - start);
+                    metrics.onReleased(System.nanoTime() - acquired);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the method without locking and validates no write happened in between,
+     * if one happened the method is re-executed under the read lock (proceed() is called twice).
+     */
+    private static final class OptimisticInvocation implements Invocation {
+        private final LockSelector lockSelector;
+        private final long timeout;
+        private final ContentionMetrics metrics;
+
+        private OptimisticInvocation(final LockSelector lockSelector, final long timeout,
+                                     final ContentionMetrics metrics) {
+            this.lockSelector = lockSelector;
+            this.timeout = timeout;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public Object invoke(final InvocationContext context) throws Exception {
+            final StampedLock lock = StampedReadWriteLock.class.cast(lockSelector.select(context)).getStampedLock();
+            final long optimisticStamp = lock.tryOptimisticRead();
+            if (optimisticStamp != 0) {
+                try {
+                    final Object result = context.proceed();
+                    if (lock.validate(optimisticStamp)) {
+                        return result;
+                    }
+                } catch (final Exception e) {
+                    if (lock.validate(optimisticStamp)) {
+                        throw e;
+                    } // else the failure can be due to a concurrent write, retry under the read lock
+                }
+            }
+
+            // only the fallback is measured, the optimistic path never waits
+            final long start = metrics != null ? System.nanoTime() : 0;
+            long stamp = 0;
+            final long wait = Deadline.waitNanos(timeout);
+            if (wait >= 0) {
+                try {
+                    stamp = wait == 0 ? 0 : lock.tryReadLock(wait, TimeUnit.NANOSECONDS);
+                    if (stamp == 0) {
+                        onTimeout(context, wait, metrics);
+                    }
+                } catch (final InterruptedException e) {
+                    onInterruption(e);
+                }
+            } else {
+                stamp = lock.readLock();
+            }
+            final long acquired = metrics != null ? System.nanoTime() : 0;
+            try {
+                return context.proceed();
+            } finally {
+                lock.unlockRead(stamp);
+                if (metrics != null) {
+                    metrics.onAcquired(acquired - start);
+                    metrics.onReleased(System.nanoTime() - acquired);
+                }
+            }
+        }
+    }
+
+    private static final class AsyncLockSelector {
+        private final AsyncReadWriteLock lock;
+        private final AsyncReadWriteLock[] stripes;
+        private final int parameter;
+        private final int mask;
+
+        private AsyncLockSelector(final AsyncReadWriteLock lock, final AsyncReadWriteLock[] stripes, final int parameter) {
+            this.lock = lock;
+            this.stripes = stripes;
+            this.parameter = parameter;
+            this.mask = stripes == null ? 0 : stripes.length - 1;
+        }
+
+        private AsyncReadWriteLock select(final InvocationContext context) {
+            return stripes == null ? lock : stripes[Locks.stripe(context.getParameters()[parameter], mask)];
+        }
+    }
+
+    /**
+     * Locks a CompletionStage returning method until the stage completes: the call is queued
+     * as a continuation of the lock acquisition so no thread waits for the lock.
+     * The method runs in the caller thread if the lock is free, else in the async pool once granted,
+     * never in the thread releasing the lock or in the timer thread.
+     */
+    private static final class AsyncLockInvocation implements Invocation {
+        private final AsyncLockSelector lockSelector;
+        private final boolean write;
+        private final long timeout;
+        private final ContentionMetrics metrics;
+        private final ThreadPoolManager manager;
+        private final String poolName;
+        private volatile Executor pool; // resolved once the manager is running
+
+        private AsyncLockInvocation(final AsyncLockSelector lockSelector, final boolean write, final long timeout,
+                                    final ContentionMetrics metrics, final ThreadPoolManager manager, final String poolName) {
+            this.lockSelector = lockSelector;
+            this.write = write;
+            this.timeout = timeout;
+            this.metrics = metrics;
+            this.manager = manager;
+            this.poolName = poolName;
+        }
+
+        private void execute(final Runnable task) {
+            try {
+                getPool().execute(task);
+            } catch (final RejectedExecutionException ree) { // the lock can be granted, never lose the continuation
+                task.run();
+            }
+        }
+
+        private Executor getPool() {
+            Executor executor = pool;
+            if (executor == null) {
+                executor = manager.getOrCreatePool(poolName);
+                pool = executor;
+            }
+            return executor;
+        }
+
+        @Override
+        public Object invoke(final InvocationContext context) {
+            final AsyncReadWriteLock lock = lockSelector.select(context);
+            final long start = metrics != null ? System.nanoTime() : 0;
+            final long wait = Deadline.waitNanos(timeout);
+            final CompletableFuture<Object> result = new CompletableFuture<>();
+            final CompletableFuture<Void> acquisition;
+            if (wait == 0) { // only an immediately available lock can be used
+                if (!(write ? lock.tryWriteLock() : lock.tryReadLock())) {
+                    result.completeExceptionally(timeoutError(context, wait, metrics));
+                    return result;
+                }
+                acquisition = CompletableFuture.completedFuture(null);
+            } else {
+                acquisition = lock.acquire(write);
+                if (wait > 0 && !acquisition.isDone()) {
+                    final TimerWheel.Timeout expiration = manager.getTimer().schedule(
+                        () -> acquisition.completeExceptionally(timeoutError(context, wait, null)), wait, TimeUnit.NANOSECONDS);
+                    acquisition.whenComplete((r, e) -> expiration.cancel());
+                }
+                result.whenComplete((r, e) -> acquisition.cancel(false)); // no-op once acquired
+            }
+
+            final long deadline = Deadline.get(); // the method can run in the async pool
+            final BiConsumer<Void, Throwable> onAcquisition = (ignored, error) -> {
+                if (error != null) { // timed out or cancelled
+                    if (metrics != null && !CancellationException.class.isInstance(error)) {
+                        metrics.onTimeout();
+                    }
+                    result.completeExceptionally(error);
+                    return;
+                }
+                final long acquired = metrics != null ? System.nanoTime() : 0;
+                final Runnable unlock = () -> {
+                    if (write) {
+                        lock.unlockWrite();
+                    } else {
+                        lock.unlockRead();
+                    }
+                    if (metrics != null) {
+                        metrics.onAcquired(acquired - start);
+                        metrics.onReleased(System.nanoTime() - acquired);
+                    }
+                };
+                if (result.isDone()) { // cancelled while being granted
+                    unlock.run();
+                    return;
+                }
+
+                final Object stage;
+                final Long previous = Deadline.set(deadline);
+                try {
+                    stage = context.proceed();
+                } catch (final Exception e) {
+                    unlock.run();
+                    result.completeExceptionally(e);
+                    return;
+                } finally {
+                    Deadline.restore(previous);
+                }
+                if (stage == null) {
+                    unlock.run();
+                    result.complete(null);
+                    return;
+                }
+                final CompletionStage<?> completionStage = CompletionStage.class.cast(stage);
+                completionStage.whenComplete((value, failure) -> {
+                    unlock.run();
+                    if (failure != null) {
+                        result.completeExceptionally(failure);
+                    } else {
+                        result.complete(value);
+                    }
+                });
+            };
+            if (acquisition.isDone()) { // free lock, run in the caller thread
+                acquisition.whenComplete(onAcquisition);
+            } else {
+                acquisition.whenCompleteAsync(onAcquisition, this::execute);
+            }
+            return result;
+        }
     }
 }
@@ -0,0 +1,21 @@
+package com.github.rmannibucau.mylang.lock.api;
+
+/**
+ * Source of truth of cluster wide permits, nodes lease blocks of permits and give them back when unused.
+ * Calls are remote in a real deployment so they must not block on permits, they just grant what is free.
+ */
+public interface PermitCoordinator {
+    /**
+     * @param name the semaphore name.
+     * @param permits the cluster wide number of permits of the semaphore.
+     * @param requested how many permits the node wants.
+     * @return the granted permits, between 0 and requested.
+     */
+    int lease(String name, int permits, int requested);
+
+    /**
+     * @param name the semaphore name.
+     * @param permits permits the node doesn't use anymore.
+     */
+    void giveBack(String name, int permits);
+}
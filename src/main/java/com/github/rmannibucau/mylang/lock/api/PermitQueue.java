@@ -0,0 +1,223 @@
+package com.github.rmannibucau.mylang.lock.api;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Permits with a bounded and optionally LIFO waiting queue, used to shed load:
+ * once maxWaiters calls are waiting new calls are rejected immediately instead of piling up.
+ *
+ * Waiters are queued per priority level (0 being the lowest), released permits go to the highest
+ * level first and a full queue evicts a lower priority waiter rather than rejecting a higher priority call.
+ * Each level is a deque so queueing, granting and evicting are O(1) per level.
+ *
+ * Acquisition is a CAS on the permits while nobody waits, the queue lock is only taken to wait
+ * and to hand released permits to the waiters.
+ */
+public class PermitQueue {
+    private static final int WAITING = 0;
+    private static final int GRANTED = 1;
+    private static final int REJECTED = 2;
+
+    private final AtomicInteger permits;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Deque<Waiter>[] levels; // guarded by lock, the head of a level is served first
+    private final int maxWaiters;
+    private final boolean lifo;
+
+    /**
+     * @param permits number of permits.
+     * @param maxWaiters max number of waiting calls, negative means unbounded.
+     * @param lifo true to serve the last waiter first.
+     */
+    public PermitQueue(final int permits, final int maxWaiters, final boolean lifo) {
+        this(permits, maxWaiters, lifo, 1);
+    }
+
+    /**
+     * @param permits number of permits.
+     * @param maxWaiters max number of waiting calls, negative means unbounded.
+     * @param lifo true to serve the last waiter of a level first.
+     * @param priorities number of priority levels.
+     */
+    @SuppressWarnings("unchecked") // generic array of the levels
+    public PermitQueue(final int permits, final int maxWaiters, final boolean lifo, final int priorities) {
+        if (priorities <= 0) {
+            throw new IllegalArgumentException("priorities should be positive: " + priorities);
+        }
+        this.permits = new AtomicInteger(permits);
+        this.maxWaiters = maxWaiters;
+        this.lifo = lifo;
+        this.levels = new Deque[priorities];
+        for (int i = 0; i < priorities; i++) {
+            levels[i] = new ArrayDeque<>();
+        }
+    }
+
+    public int getPriorities() {
+        return levels.length;
+    }
+
+    public int availablePermits() {
+        return permits.get();
+    }
+
+    public int getWaiterCount() {
+        return waiting.get();
+    }
+
+    /**
+     * Same as acquire(weight, 0, timeoutNanos), ie with the lowest priority.
+     */
+    public Result acquire(final int weight, final long timeoutNanos) throws InterruptedException {
+        return acquire(weight, 0, timeoutNanos);
+    }
+
+    /**
+     * @param weight number of permits to acquire.
+     * @param priority priority of the call, from 0 (lowest) to getPriorities() - 1, out of range values are clamped.
+     * @param timeoutNanos max wait duration, negative to wait until permits are available.
+     * @return the acquisition status, permits must be released only if ACQUIRED.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public Result acquire(final int weight, final int priority, final long timeoutNanos) throws InterruptedException {
+        if (waiting.get() == 0 && tryTake(weight)) {
+            return Result.ACQUIRED;
+        }
+        if (timeoutNanos == 0) {
+            return Result.TIMED_OUT;
+        }
+
+        final Waiter waiter = new Waiter(weight, Math.max(0, Math.min(levels.length - 1, priority)), Thread.currentThread());
+        lock.lock();
+        try {
+            if (maxWaiters >= 0 && waiting.get() >= maxWaiters && !evictLowerThan(waiter.priority)) {
+                return Result.REJECTED;
+            }
+            if (lifo) {
+                levels[waiter.priority].addFirst(waiter);
+            } else {
+                levels[waiter.priority].addLast(waiter);
+            }
+            waiting.incrementAndGet();
+            dispatch(); // permits can have been released before we were visible
+        } finally {
+            lock.unlock();
+        }
+
+        final long deadline = timeoutNanos > 0 ? System.nanoTime() + timeoutNanos : 0;
+        while (waiter.state == WAITING) {
+            if (Thread.interrupted()) {
+                if (cancel(waiter)) {
+                    throw new InterruptedException();
+                }
+                Thread.currentThread().interrupt(); // granted or evicted concurrently, keep the flag
+                break;
+            }
+            if (timeoutNanos < 0) {
+                LockSupport.park(this);
+            } else {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    if (cancel(waiter)) {
+                        return Result.TIMED_OUT;
+                    }
+                    break;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+        }
+        return waiter.state == GRANTED ? Result.ACQUIRED : Result.REJECTED;
+    }
+
+    public void release(final int weight) {
+        permits.addAndGet(weight);
+        if (waiting.get() > 0) {
+            lock.lock();
+            try {
+                dispatch();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // under lock, strict priority: a lower level never passes a waiter of a higher level
+    private void dispatch() {
+        for (int i = levels.length - 1; i >= 0; i--) {
+            final Deque<Waiter> level = levels[i];
+            Waiter head;
+            while ((head = level.peekFirst()) != null) {
+                if (!tryTake(head.weight)) {
+                    return;
+                }
+                level.pollFirst();
+                wakeUp(head, GRANTED);
+            }
+        }
+    }
+
+    // under lock, the evicted waiter is the one its level would serve last
+    private boolean evictLowerThan(final int priority) {
+        for (int i = 0; i < priority; i++) {
+            final Waiter victim = levels[i].pollLast();
+            if (victim != null) {
+                wakeUp(victim, REJECTED);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void wakeUp(final Waiter waiter, final int state) {
+        waiting.decrementAndGet();
+        waiter.state = state;
+        LockSupport.unpark(waiter.thread);
+    }
+
+    private boolean cancel(final Waiter waiter) {
+        lock.lock();
+        try {
+            if (waiter.state != WAITING) {
+                return false;
+            }
+            levels[waiter.priority].remove(waiter);
+            waiting.decrementAndGet();
+            dispatch(); // the waiter can have blocked smaller ones
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean tryTake(final int weight) {
+        int current;
+        while ((current = permits.get()) >= weight) {
+            if (permits.compareAndSet(current, current - weight)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public enum Result {
+        ACQUIRED, TIMED_OUT, REJECTED
+    }
+
+    private static final class Waiter {
+        private final int weight;
+        private final int priority;
+        private final Thread thread;
+        private volatile int state = WAITING;
+
+        private Waiter(final int weight, final int priority, final Thread thread) {
+            this.weight = weight;
+            this.priority = priority;
+            this.thread = thread;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.github.rmannibucau.mylang.lock.api;
+
+import javax.interceptor.InvocationContext;
+
+/**
+ * Computes the priority of a throttled call at runtime, from 0 (lowest) to Throttling.priorities() - 1.
+ */
+public interface PriorityResolver {
+    int priority(InvocationContext context);
+}
@@ -0,0 +1,22 @@
+package com.github.rmannibucau.mylang.lock.api;
+
+import java.util.concurrent.TimeUnit;
+
+public interface RateLimiter {
+    /**
+     * @param permits number of tokens to consume.
+     * @param timeout max time to wait for the tokens.
+     * @param unit timeout unit.
+     * @return true if tokens were acquired, false if they would not be available before the timeout.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    boolean tryAcquire(int permits, long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Waits until tokens are available.
+     *
+     * @param permits number of tokens to consume.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void acquire(int permits) throws InterruptedException;
+}
@@ -0,0 +1,8 @@
+package com.github.rmannibucau.mylang.lock.api;
+
+import javax.enterprise.inject.spi.AnnotatedMethod;
+import java.util.concurrent.TimeUnit;
+
+public interface RateLimiterFactory {
+    RateLimiter newRateLimiter(AnnotatedMethod<?> method, String name, int rate, long period, TimeUnit periodUnit, int burst);
+}
@@ -0,0 +1,27 @@
+package com.github.rmannibucau.mylang.lock.api;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.spi.AnnotatedMethod;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * Creates StampedLock based locks (one per bean) enabling OPTIMISTIC_READ operations.
+ * Fairness is not supported.
+ */
+@ApplicationScoped
+public class StampedLockFactory implements LockFactory {
+    private final ConcurrentMap<String, ReadWriteLock> locks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ReadWriteLock[]> stripedLocks = new ConcurrentHashMap<>();
+
+    @Override
+    public ReadWriteLock newLock(final AnnotatedMethod<?> method, final boolean fair) {
+        return locks.computeIfAbsent(method.getJavaMember().getDeclaringClass().getName(), key -> new StampedReadWriteLock());
+    }
+
+    @Override
+    public ReadWriteLock[] newLocks(final AnnotatedMethod<?> method, final boolean fair, final int stripes) {
+        return LockedInterceptor.Locks.newStripes(stripedLocks, method, stripes, StampedReadWriteLock::new);
+    }
+}
@@ -0,0 +1,29 @@
+package com.github.rmannibucau.mylang.lock.api;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * ReadWriteLock view of a StampedLock, used by OPTIMISTIC_READ operations.
+ * Note that the lock is not reentrant.
+ */
+public class StampedReadWriteLock implements ReadWriteLock {
+    private final StampedLock lock = new StampedLock();
+    private final Lock readLock = lock.asReadLock();
+    private final Lock writeLock = lock.asWriteLock();
+
+    public StampedLock getStampedLock() {
+        return lock;
+    }
+
+    @Override
+    public Lock readLock() {
+        return readLock;
+    }
+
+    @Override
+    public Lock writeLock() {
+        return writeLock;
+    }
+}
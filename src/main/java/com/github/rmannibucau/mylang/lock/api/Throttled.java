@@ -22,4 +22,18 @@ public @interface Throttled {
 
     @Nonbinding
     int weight() default 1;
+
+    /**
+     * @return the priority of the calls, from 0 (lowest) to Throttling.priorities() - 1.
+     * When permits are released higher priorities are served first. Other values fail the deployment.
+     */
+    @Nonbinding
+    int priority() default 0;
+
+    /**
+     * @return a bean computing the priority per call, it replaces priority().
+     * Computed priorities out of the range are clamped to it.
+     */
+    @Nonbinding
+    Class<? extends PriorityResolver> priorityResolver() default PriorityResolver.class;
 }
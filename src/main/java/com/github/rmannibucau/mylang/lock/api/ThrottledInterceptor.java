@@ -1,10 +1,18 @@
 package com.github.rmannibucau.mylang.lock.api;
 
+import com.github.rmannibucau.mylang.cdi.api.MetadataExtension;
+import com.github.rmannibucau.mylang.cdi.api.MetadataExtension.InterceptedMethod;
+import com.github.rmannibucau.mylang.cdi.api.MethodMetadata;
+import com.github.rmannibucau.mylang.metrics.api.ContentionMetrics;
+import com.github.rmannibucau.mylang.metrics.api.MetricsRegistry;
+import com.github.rmannibucau.mylang.thread.api.Deadline;
+
 import javax.annotation.Priority;
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
 import javax.enterprise.inject.Typed;
 import javax.enterprise.inject.spi.AnnotatedMethod;
-import javax.enterprise.inject.spi.AnnotatedType;
 import javax.enterprise.inject.spi.BeanManager;
 import javax.inject.Inject;
 import javax.interceptor.AroundInvoke;
@@ -18,6 +26,7 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
+import static java.util.Optional.of;
 import static java.util.Optional.ofNullable;
 
 @Throttled
@@ -37,82 +46,311 @@ public class ThrottledInterceptor implements Serializable {
         throw new IllegalStateException("acquire() interrupted", e);
     }
 
+    private static void onTimeout(final String what, final int weight, final long timeoutNanos,
+                                  final InvocationContext context, final ContentionMetrics metrics) {
+        if (metrics != null) {
+            metrics.onTimeout();
+        }
+        if (timeoutNanos == 0) {
+            throw new IllegalStateException("Deadline exceeded before acquiring " + weight + " " + what + " for " + context.getMethod());
+        }
+        throw new IllegalStateException("Can't acquire " + weight + " " + what + " for " + context.getMethod() + " in " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms");
+    }
+
+    private static void acquire(final Semaphore semaphore, final int weight, final long timeout,
+                                final InvocationContext context, final ContentionMetrics metrics) {
+        final long wait = Deadline.waitNanos(timeout);
+        if (wait >= 0) {
+            try {
+                if (wait == 0 || !semaphore.tryAcquire(weight, wait, TimeUnit.NANOSECONDS)) {
+                    onTimeout("permits", weight, wait, context, metrics);
+                }
+            } catch (final InterruptedException e) {
+                onInterruption(e);
+            }
+        } else {
+            try {
+                semaphore.acquire(weight);
+            } catch (final InterruptedException e) {
+                onInterruption(e);
+            }
+        }
+    }
+
     @ApplicationScoped
     @Typed(LocalCache.class)
-    static class LocalCache implements SemaphoreFactory {
+    static class LocalCache implements SemaphoreFactory, RateLimiterFactory {
         private final ConcurrentMap<String, Semaphore> semaphores = new ConcurrentHashMap<>();
-        private final ConcurrentMap<Method, Invocation> providers = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, RateLimiter> rateLimiters = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, PermitQueue> permitQueues = new ConcurrentHashMap<>();
+        // throttling of each name created by this factory, a name is one limit so its methods must agree on it
+        private final ConcurrentMap<String, String> definitions = new ConcurrentHashMap<>();
+        private final MethodMetadata<Invocation> invocations = new MethodMetadata<>(this::createInvocation);
 
         @Inject
         private BeanManager beanManager;
 
+        @Inject
+        private MetricsRegistry metrics;
+
+        @Inject
+        private MetadataExtension extension;
+
+        void init(@Observes @Initialized(ApplicationScoped.class) final Object start) {
+            invocations.init(extension, Throttled.class);
+        }
+
         Invocation getOrCreateInvocation(final InvocationContext ic) {
-            return providers.computeIfAbsent(ic.getMethod(), method -> {
-                final Class declaringClass = method.getDeclaringClass();
-                final AnnotatedType<Object> annotatedType = beanManager.createAnnotatedType(declaringClass);
-                final Optional<AnnotatedMethod<? super Object>> annotatedMethod = annotatedType.getMethods().stream()
-                    .filter(am -> am.getJavaMember().equals(method))
-                    .findFirst();
-
-                final Throttled config = annotatedMethod
-                    .map(am -> am.getAnnotation(Throttled.class))
-                    .orElseGet(() -> annotatedType.getAnnotation(Throttled.class));
-                final Optional<Throttling> sharedConfig =
-                    ofNullable(annotatedMethod.map(am -> am.getAnnotation(Throttling.class))
-                        .orElseGet(() -> annotatedType.getAnnotation(Throttling.class)));
-
-                final SemaphoreFactory factory = sharedConfig.map(Throttling::factory).filter(f -> f != SemaphoreFactory.class)
-                    .map(c -> SemaphoreFactory.class.cast(beanManager.getReference(beanManager.resolve(beanManager.getBeans(c)), SemaphoreFactory.class, null)))
+            return invocations.get(beanManager, ic.getMethod());
+        }
+
+        private Invocation createInvocation(final Method method, final InterceptedMethod interceptedMethod) {
+            final Class<?> declaringClass = method.getDeclaringClass();
+            final Throttled config = interceptedMethod.getAnnotation(Throttled.class);
+            final Optional<Throttling> sharedConfig = ofNullable(interceptedMethod.getAnnotation(Throttling.class));
+
+            final AnnotatedMethod<?> am = interceptedMethod.getMethod();
+            final String name = sharedConfig.map(Throttling::name).filter(n -> !n.isEmpty()).orElseGet(declaringClass::getName);
+            final long timeout = config.timeoutUnit().toMillis(config.timeout());
+            final int weigth = config.weight();
+            final ContentionMetrics throttleMetrics = metrics.throttle(name);
+
+            final int rate = sharedConfig.map(Throttling::rate).orElse(0);
+            if (rate > 0) {
+                final Throttling throttling = sharedConfig.get();
+                final RateLimiterFactory factory = of(throttling.rateLimiterFactory()).filter(f -> f != RateLimiterFactory.class)
+                    .map(c -> RateLimiterFactory.class.cast(beanManager.getReference(beanManager.resolve(beanManager.getBeans(c)), RateLimiterFactory.class, null)))
                     .orElse(this);
+                if (factory == this) {
+                    define(name, "rate limiter with rate=" + rate + " per " + throttling.period() + " " + throttling.periodUnit()
+                        + ", burst=" + throttling.burst(), method);
+                }
+                final RateLimiter rateLimiter = factory.newRateLimiter(
+                    am, name, rate, throttling.period(), throttling.periodUnit(), throttling.burst() > 0 ? throttling.burst() : rate);
+                return new RateLimitedInvocation(rateLimiter, weigth, timeout, throttleMetrics);
+            }
+
+            final SemaphoreFactory factory = sharedConfig.map(Throttling::factory).filter(f -> f != SemaphoreFactory.class)
+                .map(c -> SemaphoreFactory.class.cast(beanManager.getReference(beanManager.resolve(beanManager.getBeans(c)), SemaphoreFactory.class, null)))
+                .orElse(this);
+
+            final boolean fair = sharedConfig.map(Throttling::fair).orElse(false);
+            final int permits = sharedConfig.map(Throttling::permits).orElse(1);
+            final int maxWaiters = sharedConfig.map(Throttling::maxWaiters).orElse(-1);
+            final boolean lifo = sharedConfig.map(Throttling::lifo).orElse(false);
+            final int priorities = sharedConfig.map(Throttling::priorities).orElse(1);
+            if (config.priority() < 0 || config.priority() >= priorities) {
+                throw new IllegalArgumentException("priority of " + method + " should be between 0 and " + (priorities - 1)
+                    + " (Throttling.priorities() - 1): " + config.priority());
+            }
+            if (maxWaiters >= 0 || lifo || priorities > 1) {
+                if (factory != this || sharedConfig.get().adaptive()) {
+                    throw new IllegalArgumentException("maxWaiters, lifo and priorities are only supported by the default non adaptive throttling: " + method);
+                }
+                define(name, "queue with permits=" + permits + ", maxWaiters=" + maxWaiters + ", lifo=" + lifo + ", priorities=" + priorities, method);
+                final PermitQueue queue = permitQueues.computeIfAbsent(name, key -> new PermitQueue(permits, maxWaiters, lifo, priorities));
+                final PriorityResolver resolver = of(config.priorityResolver()).filter(r -> r != PriorityResolver.class)
+                    .map(c -> PriorityResolver.class.cast(beanManager.getReference(beanManager.resolve(beanManager.getBeans(c)), PriorityResolver.class, null)))
+                    .orElse(null);
+                return new QueuedInvocation(queue, weigth, config.priority(), resolver, timeout, throttleMetrics);
+            }
+            final boolean adaptive = sharedConfig.map(Throttling::adaptive).orElse(false);
+            if (factory == this) {
+                define(name, (adaptive ?
+                    "adaptive semaphore with minPermits=" + sharedConfig.get().minPermits() + ", maxPermits=" + sharedConfig.get().maxPermits() + ", " :
+                    "semaphore with ") + "permits=" + permits + ", fair=" + fair, method);
+            }
+            final Semaphore semaphore = factory == this && adaptive ?
+                newAdaptiveSemaphore(name, fair, permits, sharedConfig.get().minPermits(), sharedConfig.get().maxPermits()) :
+                factory.newSemaphore(am, name, fair, permits);
+            if (AdaptiveSemaphore.class.isInstance(semaphore)) {
+                return new AdaptiveInvocation(AdaptiveSemaphore.class.cast(semaphore), weigth, timeout, throttleMetrics);
+            }
+            return new SemaphoreInvocation(semaphore, weigth, timeout, throttleMetrics);
+        }
 
-                final Semaphore semaphore = factory.newSemaphore(
-                    annotatedMethod.orElseThrow(() -> new IllegalStateException("No annotated method for " + method)),
-                    sharedConfig.map(Throttling::name).orElseGet(declaringClass::getName),
-                    sharedConfig.map(Throttling::fair).orElse(false), sharedConfig.map(Throttling::permits).orElse(1));
-                final long timeout = config.timeoutUnit().toMillis(config.timeout());
-                final int weigth = config.weight();
-                return new Invocation(semaphore, weigth, timeout);
-            });
+        private void define(final String name, final String definition, final Method method) {
+            final String existing = definitions.putIfAbsent(name, definition);
+            if (existing != null && !existing.equals(definition)) {
+                throw new IllegalArgumentException("Throttling " + name + " of " + method + " is a " + definition
+                    + " but it is already a " + existing + ", methods sharing a name must use the same throttling");
+            }
         }
 
         @Override
         public Semaphore newSemaphore(final AnnotatedMethod<?> method, final String name, final boolean fair, final int permits) {
             return semaphores.computeIfAbsent(name, key -> new Semaphore(permits, fair));
         }
+
+        private Semaphore newAdaptiveSemaphore(final String name, final boolean fair, final int permits,
+                                               final int minPermits, final int maxPermits) {
+            return semaphores.computeIfAbsent(name, key -> new AdaptiveSemaphore(
+                permits, Math.min(minPermits, permits), maxPermits <= 0 ? Integer.MAX_VALUE : maxPermits, fair));
+        }
+
+        @Override
+        public RateLimiter newRateLimiter(final AnnotatedMethod<?> method, final String name,
+                                          final int rate, final long period, final TimeUnit periodUnit, final int burst) {
+            return rateLimiters.computeIfAbsent(name, key -> new TokenBucketRateLimiter(rate, period, periodUnit, burst));
+        }
     }
 
-    private static final class Invocation {
+    private interface Invocation {
+        Object invoke(InvocationContext context) throws Exception;
+    }
+
+    private static final class SemaphoreInvocation implements Invocation {
         private final int weight;
         private final Semaphore semaphore;
         private final long timeout;
+        private final ContentionMetrics metrics;
 
-        private Invocation(final Semaphore semaphore, final int weight, final long timeout) {
+        private SemaphoreInvocation(final Semaphore semaphore, final int weight, final long timeout,
+                                    final ContentionMetrics metrics) {
             this.semaphore = semaphore;
             this.weight = weight;
             this.timeout = timeout;
+            this.metrics = metrics;
         }
 
-        Object invoke(final InvocationContext context) throws Exception {
-            if (timeout > 0) {
-                try {
-                    if (!semaphore.tryAcquire(weight, timeout, TimeUnit.MILLISECONDS)) {
-                        throw new IllegalStateException("Can't acquire " + weight + " permits for " + context.getMethod() + " in " + timeout + "ms");
-                    }
-                } catch (final InterruptedException e) {
-                    return onInterruption(e);
+        @Override
+        public Object invoke(final InvocationContext context) throws Exception {
+            final long start = metrics != null ? System.nanoTime() : 0;
+            acquire(semaphore, weight, timeout, context, metrics);
+            final long acquired = metrics != null ? System.nanoTime() : 0;
+            try {
+                return context.proceed();
+            } finally {
+                semaphore.release(weight);
+                if (metrics != null) {
+                    metrics.onAcquired(acquired - start);
+                    metrics.onReleased(System.nanoTime() - acquired);
                 }
-            } else {
-                try {
-                    semaphore.acquire(weight);
-                } catch (final InterruptedException e) {
-                    return onInterruption(e);
+            }
+        }
+    }
+
+    private static final class QueuedInvocation implements Invocation {
+        private final int weight;
+        private final int priority;
+        private final PriorityResolver resolver;
+        private final PermitQueue queue;
+        private final long timeout;
+        private final ContentionMetrics metrics;
+
+        private QueuedInvocation(final PermitQueue queue, final int weight, final int priority, final PriorityResolver resolver,
+                                 final long timeout, final ContentionMetrics metrics) {
+            this.queue = queue;
+            this.weight = weight;
+            this.priority = priority;
+            this.resolver = resolver;
+            this.timeout = timeout;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public Object invoke(final InvocationContext context) throws Exception {
+            final long start = metrics != null ? System.nanoTime() : 0;
+            final long wait = Deadline.waitNanos(timeout);
+            if (wait == 0) {
+                onTimeout("permits", weight, wait, context, metrics);
+            }
+            final PermitQueue.Result result;
+            try {
+                result = queue.acquire(weight, resolver != null ? resolver.priority(context) : priority, wait);
+            } catch (final InterruptedException e) {
+                return onInterruption(e);
+            }
+            switch (result) {
+                case TIMED_OUT:
+                    onTimeout("permits", weight, wait, context, metrics);
+                    break;
+                case REJECTED:
+                    if (metrics != null) {
+                        metrics.onRejected();
+                    }
+                    throw new IllegalStateException("Too many calls waiting for " + context.getMethod() + ", call rejected");
+                default:
+            }
+            final long acquired = metrics != null ? System.nanoTime() : 0;
+            try {
+                return context.proceed();
+            } finally {
+                queue.release(weight);
+                if (metrics != null) {
+                    metrics.onAcquired(acquired - start);
+                    metrics.onReleased(System.nanoTime() - acquired);
                 }
             }
+        }
+    }
+
+    private static final class AdaptiveInvocation implements Invocation {
+        private final int weight;
+        private final AdaptiveSemaphore semaphore;
+        private final long timeout;
+        private final ContentionMetrics metrics;
+
+        private AdaptiveInvocation(final AdaptiveSemaphore semaphore, final int weight, final long timeout,
+                                   final ContentionMetrics metrics) {
+            this.semaphore = semaphore;
+            this.weight = weight;
+            this.timeout = timeout;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public Object invoke(final InvocationContext context) throws Exception {
+            final long start = System.nanoTime();
+            acquire(semaphore, weight, timeout, context, metrics);
+            final long acquired = System.nanoTime();
             try {
                 return context.proceed();
             } finally {
+                final long latency = System.nanoTime() - acquired;
+                semaphore.onSample(latency);
                 semaphore.release(weight);
+                if (metrics != null) {
+                    metrics.onAcquired(acquired - start);
+                    metrics.onReleased(latency);
+                }
+            }
+        }
+    }
+
+    private static final class RateLimitedInvocation implements Invocation {
+        private final int weight;
+        private final RateLimiter rateLimiter;
+        private final long timeout;
+        private final ContentionMetrics metrics;
+
+        private RateLimitedInvocation(final RateLimiter rateLimiter, final int weight, final long timeout,
+                                      final ContentionMetrics metrics) {
+            this.rateLimiter = rateLimiter;
+            this.weight = weight;
+            this.timeout = timeout;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public Object invoke(final InvocationContext context) throws Exception {
+            final long start = metrics != null ? System.nanoTime() : 0;
+            try {
+                final long wait = Deadline.waitNanos(timeout);
+                if (wait >= 0) {
+                    if (wait == 0 || !rateLimiter.tryAcquire(weight, wait, TimeUnit.NANOSECONDS)) {
+                        onTimeout("tokens", weight, wait, context, metrics);
+                    }
+                } else {
+                    rateLimiter.acquire(weight);
+                }
+            } catch (final InterruptedException e) {
+                return onInterruption(e);
+            }
+            if (metrics != null) { // no hold time, tokens are not released
+                metrics.onAcquired(System.nanoTime() - start);
             }
+            return context.proceed();
         }
     }
 }
@@ -3,6 +3,7 @@ package com.github.rmannibucau.mylang.lock.api;
 import javax.enterprise.util.Nonbinding;
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
 
 import static java.lang.annotation.ElementType.METHOD;
 import static java.lang.annotation.ElementType.TYPE;
@@ -20,6 +21,73 @@ public @interface Throttling {
     @Nonbinding
     int permits() default 1;
 
+    /**
+     * @return name of the limit, default to the bean class name. Methods using the same name share it and must
+     * use the same throttling configuration (permits, queueing options, adaptive or rate settings), the deployment
+     * fails otherwise.
+     */
     @Nonbinding
     String name() default "";
+
+    /**
+     * @return true to adjust the permits from the latency of the calls, permits is then the initial limit.
+     * With a custom factory, return an AdaptiveSemaphore to enable it.
+     * With the default factory, the methods sharing the name must all be adaptive or not.
+     */
+    @Nonbinding
+    boolean adaptive() default false;
+
+    @Nonbinding
+    int minPermits() default 1;
+
+    /**
+     * @return the max limit for adaptive throttling, 0 means unbounded.
+     */
+    @Nonbinding
+    int maxPermits() default 0;
+
+    /**
+     * @return number of calls (weighted) allowed per period, a positive value switches
+     * from concurrency throttling (permits) to rate throttling.
+     */
+    @Nonbinding
+    int rate() default 0;
+
+    @Nonbinding
+    long period() default 1L;
+
+    @Nonbinding
+    TimeUnit periodUnit() default TimeUnit.SECONDS;
+
+    /**
+     * @return max number of calls (weighted) allowed at once when rate is set, defaults to rate.
+     */
+    @Nonbinding
+    int burst() default 0;
+
+    @Nonbinding
+    Class<? extends RateLimiterFactory> rateLimiterFactory() default RateLimiterFactory.class;
+
+    /**
+     * @return max number of calls waiting for permits, beyond it calls are rejected immediately.
+     * Negative means unbounded, 0 never waits. Only supported by the default, non adaptive, semaphore.
+     */
+    @Nonbinding
+    int maxWaiters() default -1;
+
+    /**
+     * @return true to serve the most recent waiter first, under overload the callers which are
+     * still waiting for an answer are served instead of the ones which likely gave up.
+     * Only supported by the default, non adaptive, semaphore.
+     */
+    @Nonbinding
+    boolean lifo() default false;
+
+    /**
+     * @return number of priority levels of the waiters, see Throttled.priority(). When maxWaiters is reached
+     * a lower priority waiter is rejected to let a higher priority call wait.
+     * Only supported by the default, non adaptive, semaphore.
+     */
+    @Nonbinding
+    int priorities() default 1;
 }
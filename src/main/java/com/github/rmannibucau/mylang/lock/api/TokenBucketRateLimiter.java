@@ -0,0 +1,61 @@
+package com.github.rmannibucau.mylang.lock.api;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Token bucket implemented as a generic cell rate algorithm: the whole state is the
+ * theoretical arrival time of the next token so acquiring is a single CAS and
+ * releasing is a no-op.
+ */
+public class TokenBucketRateLimiter implements RateLimiter {
+    private final AtomicLong theoreticalArrivalTime;
+    private final long interval;
+    private final long tolerance;
+
+    /**
+     * @param rate number of tokens per period.
+     * @param period the period duration.
+     * @param unit the period unit.
+     * @param burst max number of tokens available at once.
+     */
+    public TokenBucketRateLimiter(final int rate, final long period, final TimeUnit unit, final int burst) {
+        if (rate <= 0 || period <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("rate, period and burst should be positive");
+        }
+        this.interval = Math.max(1, unit.toNanos(period) / rate);
+        this.tolerance = interval * burst;
+        this.theoreticalArrivalTime = new AtomicLong(System.nanoTime());
+    }
+
+    @Override
+    public boolean tryAcquire(final int permits, final long timeout, final TimeUnit unit) throws InterruptedException {
+        return acquire(permits, unit.toNanos(timeout));
+    }
+
+    @Override
+    public void acquire(final int permits) throws InterruptedException {
+        acquire(permits, Long.MAX_VALUE);
+    }
+
+    private boolean acquire(final int permits, final long maxWait) throws InterruptedException {
+        final long increment = interval * permits;
+        while (true) {
+            final long now = System.nanoTime();
+            final long tat = theoreticalArrivalTime.get();
+            final long newTat = (tat - now < 0 ? now : tat) + increment;
+            final long wait = newTat - tolerance - now;
+            if (wait > maxWait) {
+                return false;
+            }
+            if (theoreticalArrivalTime.compareAndSet(tat, newTat)) {
+                if (wait > 0) {
+                    NANOSECONDS.sleep(wait);
+                }
+                return true;
+            }
+        }
+    }
+}
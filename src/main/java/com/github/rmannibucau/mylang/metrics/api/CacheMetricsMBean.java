@@ -0,0 +1,9 @@
+package com.github.rmannibucau.mylang.metrics.api;
+
+public interface CacheMetricsMBean {
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRatio();
+}
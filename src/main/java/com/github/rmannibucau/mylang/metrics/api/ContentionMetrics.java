@@ -0,0 +1,82 @@
+package com.github.rmannibucau.mylang.metrics.api;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wait and hold times of a lock or a semaphore.
+ */
+public class ContentionMetrics implements ContentionMetricsMBean {
+    private final Histogram waitTime = new Histogram();
+    private final Histogram holdTime = new Histogram();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    public void onAcquired(final long waitNanos) {
+        waitTime.record(waitNanos);
+    }
+
+    public void onReleased(final long holdNanos) {
+        holdTime.record(holdNanos);
+    }
+
+    public void onTimeout() {
+        timeouts.increment();
+    }
+
+    public void onRejected() {
+        rejections.increment();
+    }
+
+    public Histogram getWaitTime() {
+        return waitTime;
+    }
+
+    public Histogram getHoldTime() {
+        return holdTime;
+    }
+
+    @Override
+    public long getAcquisitionCount() {
+        return waitTime.getCount();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejections.sum();
+    }
+
+    @Override
+    public double getWaitTimeMean() {
+        return waitTime.getMean();
+    }
+
+    @Override
+    public long getWaitTimeP99() {
+        return waitTime.getPercentile(99);
+    }
+
+    @Override
+    public long getWaitTimeMax() {
+        return waitTime.getMax();
+    }
+
+    @Override
+    public double getHoldTimeMean() {
+        return holdTime.getMean();
+    }
+
+    @Override
+    public long getHoldTimeP99() {
+        return holdTime.getPercentile(99);
+    }
+
+    @Override
+    public long getHoldTimeMax() {
+        return holdTime.getMax();
+    }
+}
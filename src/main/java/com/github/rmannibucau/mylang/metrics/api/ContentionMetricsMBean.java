@@ -0,0 +1,24 @@
+package com.github.rmannibucau.mylang.metrics.api;
+
+/**
+ * Durations are in nanoseconds.
+ */
+public interface ContentionMetricsMBean {
+    long getAcquisitionCount();
+
+    long getTimeoutCount();
+
+    long getRejectedCount();
+
+    double getWaitTimeMean();
+
+    long getWaitTimeP99();
+
+    long getWaitTimeMax();
+
+    double getHoldTimeMean();
+
+    long getHoldTimeP99();
+
+    long getHoldTimeMax();
+}
@@ -0,0 +1,110 @@
+package com.github.rmannibucau.mylang.metrics.api;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * Holds the metrics of the pools, locks, throttles and caches by name and exposes them as MBeans
+ * (com.github.rmannibucau.mylang:type=pool|lock|throttle|cache,name=xxx).
+ *
+ * Lock, throttle and cache metrics can be disabled with the system property mylang.metrics.enabled=false.
+ */
+@ApplicationScoped
+public class MetricsRegistry {
+    private static final String DOMAIN = "com.github.rmannibucau.mylang";
+
+    private final boolean enabled = Boolean.parseBoolean(System.getProperty("mylang.metrics.enabled", "true"));
+    private final ConcurrentMap<String, PoolMetrics> pools = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ContentionMetrics> locks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ContentionMetrics> throttles = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CacheMetrics> caches = new ConcurrentHashMap<>();
+    private final Collection<ObjectName> mbeans = new ConcurrentLinkedQueue<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public PoolMetrics registerPool(final String name, final ThreadPoolExecutor executor) {
+        return pools.computeIfAbsent(name, key -> register("pool", key, new PoolMetrics(executor)));
+    }
+
+    public PoolMetrics registerPool(final String name, final ForkJoinPool executor) {
+        return pools.computeIfAbsent(name, key -> register("pool", key, new PoolMetrics(executor)));
+    }
+
+    /**
+     * @param name lock name.
+     * @return the metrics of the lock or null if metrics are disabled.
+     */
+    public ContentionMetrics lock(final String name) {
+        return enabled ? locks.computeIfAbsent(name, key -> register("lock", key, new ContentionMetrics())) : null;
+    }
+
+    /**
+     * @param name throttle name.
+     * @return the metrics of the throttle or null if metrics are disabled.
+     */
+    public ContentionMetrics throttle(final String name) {
+        return enabled ? throttles.computeIfAbsent(name, key -> register("throttle", key, new ContentionMetrics())) : null;
+    }
+
+    /**
+     * @param name cache name.
+     * @return the metrics of the cache or null if metrics are disabled.
+     */
+    public CacheMetrics cache(final String name) {
+        return enabled ? caches.computeIfAbsent(name, key -> register("cache", key, new CacheMetrics())) : null;
+    }
+
+    public Map<String, PoolMetrics> getPools() {
+        return unmodifiableMap(pools);
+    }
+
+    public Map<String, ContentionMetrics> getLocks() {
+        return unmodifiableMap(locks);
+    }
+
+    public Map<String, ContentionMetrics> getThrottles() {
+        return unmodifiableMap(throttles);
+    }
+
+    public Map<String, CacheMetrics> getCaches() {
+        return unmodifiableMap(caches);
+    }
+
+    @PreDestroy
+    void destroy() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        mbeans.forEach(name -> {
+            try {
+                server.unregisterMBean(name);
+            } catch (final Exception e) {
+                // no-op, already unregistered
+            }
+        });
+        mbeans.clear();
+    }
+
+    private <T> T register(final String type, final String name, final T mbean) {
+        try {
+            final ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, objectName);
+            mbeans.add(objectName);
+        } catch (final Exception e) {
+            // no-op, JMX is best effort (another application can use the same name), the java API still works
+        }
+        return mbean;
+    }
+}
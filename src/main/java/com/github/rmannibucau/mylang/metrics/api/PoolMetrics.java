@@ -0,0 +1,142 @@
+package com.github.rmannibucau.mylang.metrics.api;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Reads the executor state on demand, only rejections are counted (by decorating the rejection handler).
+ * ForkJoinPool does not track completed tasks and only rejects tasks once shut down, they are reported as -1 and 0.
+ *
+ * Queue and execution times are only recorded by traced pools (see TracedThreadPoolExecutor),
+ * the last slow tasks are kept in a small ring.
+ */
+public class PoolMetrics implements PoolMetricsMBean {
+    private static final int SLOW_TASKS = 16;
+
+    private final IntSupplier queueSize;
+    private final IntSupplier activeCount;
+    private final IntSupplier poolSize;
+    private final LongSupplier completedTaskCount;
+    private final LongAdder rejected = new LongAdder();
+    private final Histogram queueTime = new Histogram();
+    private final Histogram executionTime = new Histogram();
+    private final AtomicReferenceArray<String> slowTasks = new AtomicReferenceArray<>(SLOW_TASKS);
+    private final AtomicLong slowTaskCount = new AtomicLong();
+
+    PoolMetrics(final ThreadPoolExecutor executor) {
+        this.queueSize = () -> executor.getQueue().size();
+        this.activeCount = executor::getActiveCount;
+        this.poolSize = executor::getPoolSize;
+        this.completedTaskCount = executor::getCompletedTaskCount;
+
+        final RejectedExecutionHandler handler = executor.getRejectedExecutionHandler();
+        executor.setRejectedExecutionHandler((r, e) -> {
+            rejected.increment();
+            handler.rejectedExecution(r, e);
+        });
+    }
+
+    PoolMetrics(final ForkJoinPool executor) {
+        this.queueSize = () -> (int) Math.min(Integer.MAX_VALUE, executor.getQueuedSubmissionCount() + executor.getQueuedTaskCount());
+        this.activeCount = executor::getActiveThreadCount;
+        this.poolSize = executor::getPoolSize;
+        this.completedTaskCount = () -> -1;
+    }
+
+    public void onTask(final long queueNanos, final long executionNanos) {
+        queueTime.record(queueNanos);
+        executionTime.record(executionNanos);
+    }
+
+    public void onSlowTask(final String description, final long queueNanos, final long executionNanos) {
+        final int index = (int) (slowTaskCount.getAndIncrement() & (SLOW_TASKS - 1));
+        slowTasks.set(index, description + " queued " + TimeUnit.NANOSECONDS.toMillis(queueNanos) +
+            "ms, ran " + TimeUnit.NANOSECONDS.toMillis(executionNanos) + "ms");
+    }
+
+    public Histogram getQueueTime() {
+        return queueTime;
+    }
+
+    public Histogram getExecutionTime() {
+        return executionTime;
+    }
+
+    @Override
+    public int getQueueSize() {
+        return queueSize.getAsInt();
+    }
+
+    @Override
+    public int getActiveCount() {
+        return activeCount.getAsInt();
+    }
+
+    @Override
+    public int getPoolSize() {
+        return poolSize.getAsInt();
+    }
+
+    @Override
+    public long getCompletedTaskCount() {
+        return completedTaskCount.getAsLong();
+    }
+
+    @Override
+    public long getRejectedTaskCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public double getQueueTimeMean() {
+        return queueTime.getMean();
+    }
+
+    @Override
+    public long getQueueTimeP99() {
+        return queueTime.getPercentile(99);
+    }
+
+    @Override
+    public long getQueueTimeMax() {
+        return queueTime.getMax();
+    }
+
+    @Override
+    public double getExecutionTimeMean() {
+        return executionTime.getMean();
+    }
+
+    @Override
+    public long getExecutionTimeP99() {
+        return executionTime.getPercentile(99);
+    }
+
+    @Override
+    public long getExecutionTimeMax() {
+        return executionTime.getMax();
+    }
+
+    @Override
+    public long getSlowTaskCount() {
+        return slowTaskCount.get();
+    }
+
+    @Override
+    public String[] getSlowTasks() {
+        final long count = slowTaskCount.get();
+        final int size = (int) Math.min(count, SLOW_TASKS);
+        final String[] tasks = new String[size];
+        for (int i = 0; i < size; i++) { // most recent first
+            tasks[i] = slowTasks.get((int) ((count - 1 - i) & (SLOW_TASKS - 1)));
+        }
+        return tasks;
+    }
+}
@@ -0,0 +1,32 @@
+package com.github.rmannibucau.mylang.metrics.api;
+
+/**
+ * Durations are in nanoseconds.
+ */
+public interface PoolMetricsMBean {
+    int getQueueSize();
+
+    int getActiveCount();
+
+    int getPoolSize();
+
+    long getCompletedTaskCount();
+
+    long getRejectedTaskCount();
+
+    double getQueueTimeMean();
+
+    long getQueueTimeP99();
+
+    long getQueueTimeMax();
+
+    double getExecutionTimeMean();
+
+    long getExecutionTimeP99();
+
+    long getExecutionTimeMax();
+
+    long getSlowTaskCount();
+
+    String[] getSlowTasks();
+}
@@ -0,0 +1,90 @@
+package com.github.rmannibucau.mylang.thread.api;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rejection policies applied when the work queue of a pool is full,
+ * to use with ThreadPoolBuilder.withRejectedExecutionHandler().
+ */
+public final class BackPressure {
+    private BackPressure() {
+        // no-op
+    }
+
+    /**
+     * @return a policy executing the task in the submitting thread, slowing down producers.
+     */
+    public static RejectedExecutionHandler callerRuns() {
+        return new ThreadPoolExecutor.CallerRunsPolicy();
+    }
+
+    /**
+     * @param timeout max time to wait for room in the queue.
+     * @param unit timeout unit.
+     * @return a policy blocking the submitting thread until the task can be queued, or failing after the timeout.
+     */
+    public static RejectedExecutionHandler block(final long timeout, final TimeUnit unit) {
+        return (task, executor) -> {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Pool shut down");
+            }
+            try {
+                if (!executor.getQueue().offer(task, timeout, unit)) {
+                    throw new RejectedExecutionException("Queue still full after " + timeout + unit.name().toLowerCase());
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for the queue", e);
+            }
+        };
+    }
+
+    /**
+     * The oldest task is only dropped if it is a Future observed by its caller (a submit() task for instance)
+     * since it is cancelled and its caller notified. Other tasks would never complete: plain Runnables and
+     * the ones of CompletableFuture.*Async() and @Futureable, which are ForkJoinTasks whose cancellation
+     * doesn't reach the CompletableFuture returned to the caller. The new task is rejected instead.
+     *
+     * @return a policy dropping the oldest queued task, cancelled, to queue the new one.
+     */
+    public static RejectedExecutionHandler dropOldest() {
+        return (task, executor) -> {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Pool shut down");
+            }
+            final BlockingQueue<Runnable> queue = executor.getQueue();
+            final Runnable oldest = queue.peek();
+            if (oldest != null) {
+                final Future<?> future = asFuture(oldest);
+                if (future == null) {
+                    throw new RejectedExecutionException("Queue full and the oldest task can't be cancelled");
+                }
+                if (queue.remove(oldest)) { // else already taken by a worker
+                    future.cancel(false);
+                }
+            }
+            if (!queue.offer(task)) { // filled by a concurrent submission
+                throw new RejectedExecutionException("Queue still full after dropping the oldest task");
+            }
+        };
+    }
+
+    private static Future<?> asFuture(final Runnable task) {
+        Runnable current = task;
+        while (TracedThreadPoolExecutor.TracedTask.class.isInstance(current)) {
+            current = TracedThreadPoolExecutor.TracedTask.class.cast(current).getDelegate();
+        }
+        if (!Future.class.isInstance(current) || ForkJoinTask.class.isInstance(current)
+                || CompletableFuture.AsynchronousCompletionTask.class.isInstance(current)) {
+            return null;
+        }
+        return Future.class.cast(current);
+    }
+}
@@ -0,0 +1,307 @@
+package com.github.rmannibucau.mylang.thread.api;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded array based multi producers/multi consumers queue (D. Vyukov algorithm): offer() and poll()
+ * are a CAS on a position plus a sequence update per slot and never allocate.
+ * Only blocking calls (take(), put() and the timed variants) use a lock, and only once they have to wait:
+ * producers and consumers signal it only when a thread actually waits.
+ *
+ * remove(Object) (used by ThreadPoolExecutor.remove(), purge() and its shutdown recheck) scans the queue and
+ * replaces the element by a tombstone skipped by poll(). A removed element keeps its slot, counted by size(),
+ * until it reaches the head of the queue.
+ *
+ * @param <E> element type.
+ */
+public class BoundedWorkQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+    private static final Object REMOVED = new Object();
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<Object> buffer;
+    private final AtomicLongArray sequences;
+    private final AtomicLong enqueuePosition = new AtomicLong();
+    private final AtomicLong dequeuePosition = new AtomicLong();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicInteger waitingConsumers = new AtomicInteger();
+    private final AtomicInteger waitingProducers = new AtomicInteger();
+
+    /**
+     * @param capacity the queue capacity, rounded up to a power of two.
+     */
+    public BoundedWorkQueue(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity should be positive");
+        }
+        this.capacity = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.buffer = new AtomicReferenceArray<>(this.capacity);
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    @Override
+    public boolean offer(final E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long position = enqueuePosition.get();
+        while (true) {
+            final int index = (int) (position & mask);
+            final long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                if (enqueuePosition.compareAndSet(position, position + 1)) {
+                    buffer.set(index, e);
+                    sequences.set(index, position + 1);
+                    break;
+                }
+                position = enqueuePosition.get();
+            } else if (diff < 0) { // full
+                return false;
+            } else {
+                position = enqueuePosition.get();
+            }
+        }
+        if (waitingConsumers.get() > 0) {
+            signal(notEmpty);
+        }
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        long position = dequeuePosition.get();
+        while (true) {
+            final int index = (int) (position & mask);
+            final long diff = sequences.get(index) - (position + 1);
+            if (diff == 0) {
+                if (dequeuePosition.compareAndSet(position, position + 1)) {
+                    final Object e = buffer.getAndSet(index, null); // atomic against remove()
+                    sequences.set(index, position + capacity);
+                    if (waitingProducers.get() > 0) {
+                        signal(notFull);
+                    }
+                    if (e != REMOVED) {
+                        return elementType(e);
+                    }
+                }
+                position = dequeuePosition.get();
+            } else if (diff < 0) { // empty
+                return null;
+            } else {
+                position = dequeuePosition.get();
+            }
+        }
+    }
+
+    @Override
+    public E peek() {
+        final long end = enqueuePosition.get();
+        for (long position = dequeuePosition.get(); position < end; position++) {
+            final int index = (int) (position & mask);
+            if (sequences.get(index) != position + 1) {
+                return null;
+            }
+            final Object e = buffer.get(index);
+            if (e != REMOVED && e != null) {
+                return elementType(e);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void put(final E e) throws InterruptedException {
+        offer(e, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public boolean offer(final E e, final long timeout, final TimeUnit unit) throws InterruptedException {
+        if (offer(e)) {
+            return true;
+        }
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            waitingProducers.incrementAndGet();
+            try {
+                while (!offer(e)) {
+                    if (nanos <= 0) {
+                        return false;
+                    }
+                    nanos = notFull.awaitNanos(nanos);
+                }
+                return true;
+            } finally {
+                waitingProducers.decrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        return poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public E poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        E e = poll();
+        if (e != null) {
+            return e;
+        }
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            waitingConsumers.incrementAndGet();
+            try {
+                while ((e = poll()) == null) {
+                    if (nanos <= 0) {
+                        return null;
+                    }
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+                return e;
+            } finally {
+                waitingConsumers.decrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        final long size = enqueuePosition.get() - dequeuePosition.get();
+        return (int) Math.max(0, Math.min(capacity, size));
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    @Override
+    public boolean remove(final Object o) {
+        if (o == null) {
+            return false;
+        }
+        final long end = enqueuePosition.get();
+        for (long position = dequeuePosition.get(); position < end; position++) {
+            final int index = (int) (position & mask);
+            final Object e = buffer.get(index);
+            if (e != null && e != REMOVED && o.equals(e) && buffer.compareAndSet(index, e, REMOVED)) {
+                skipRemovedHead();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // frees the slots of the removed elements at the head, the other ones are freed when polled
+    private void skipRemovedHead() {
+        long position = dequeuePosition.get();
+        while (true) {
+            final int index = (int) (position & mask);
+            if (sequences.get(index) != position + 1 || buffer.get(index) != REMOVED) {
+                return;
+            }
+            if (dequeuePosition.compareAndSet(position, position + 1)) {
+                buffer.set(index, null);
+                sequences.set(index, position + capacity);
+                if (waitingProducers.get() > 0) {
+                    signal(notFull);
+                }
+            }
+            position = dequeuePosition.get();
+        }
+    }
+
+    @Override
+    public int drainTo(final Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(final Collection<? super E> c, final int maxElements) {
+        int count = 0;
+        E e;
+        while (count < maxElements && (e = poll()) != null) {
+            c.add(e);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return a weakly consistent snapshot iterator, its remove() removes the element from the queue if still there.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        final List<E> snapshot = new ArrayList<>(size());
+        final long end = enqueuePosition.get();
+        for (long position = dequeuePosition.get(); position < end; position++) {
+            final Object e = buffer.get((int) (position & mask));
+            if (e != null && e != REMOVED) {
+                snapshot.add(elementType(e));
+            }
+        }
+        final Iterator<E> delegate = snapshot.iterator();
+        return new Iterator<E>() {
+            private E last;
+
+            @Override
+            public boolean hasNext() {
+                return delegate.hasNext();
+            }
+
+            @Override
+            public E next() {
+                last = delegate.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException("next() not called");
+                }
+                BoundedWorkQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> E elementType(final Object e) {
+        return (E) e;
+    }
+
+    private void signal(final Condition condition) {
+        lock.lock();
+        try {
+            condition.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.rmannibucau.mylang.thread.api;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadline (System.nanoTime() based) of the current thread, set while a @Futureable with a timeout runs.
+ * Nested @Futureable, @Locked and @Throttled calls bound their waits with it and fail fast once it is exceeded.
+ */
+public final class Deadline {
+    private static final ThreadLocal<Long> CURRENT = new ThreadLocal<>();
+
+    private Deadline() {
+        // no-op
+    }
+
+    /**
+     * @return the deadline of the current thread or 0 if there is none.
+     */
+    public static long get() {
+        final Long deadline = CURRENT.get();
+        return deadline == null ? 0 : deadline;
+    }
+
+    /**
+     * @param deadline the deadline to set, 0 to remove it.
+     * @return the previous value to give to restore().
+     */
+    public static Long set(final long deadline) {
+        final Long previous = CURRENT.get();
+        if (deadline == 0) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(deadline);
+        }
+        return previous;
+    }
+
+    public static void restore(final Long previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * @param timeoutNanos a timeout starting now, 0 for none.
+     * @return the earliest of the current deadline and the timeout one, 0 if there is none.
+     */
+    public static long of(final long timeoutNanos) {
+        final long current = get();
+        if (timeoutNanos <= 0) {
+            return current;
+        }
+        final long deadline = System.nanoTime() + timeoutNanos;
+        return current == 0 || deadline - current < 0 ? deadline : current;
+    }
+
+    /**
+     * @param timeoutMillis a configured timeout, 0 for none.
+     * @return the nanoseconds to wait: the timeout bounded by the current deadline,
+     * 0 if the deadline is exceeded and -1 if there is no bound at all.
+     */
+    public static long waitNanos(final long timeoutMillis) {
+        final long timeout = timeoutMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : -1;
+        final Long deadline = CURRENT.get();
+        if (deadline == null) {
+            return timeout;
+        }
+        final long remaining = Math.max(0, deadline - System.nanoTime());
+        return timeout < 0 ? remaining : Math.min(timeout, remaining);
+    }
+}
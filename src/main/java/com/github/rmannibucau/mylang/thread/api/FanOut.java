@@ -0,0 +1,252 @@
+package com.github.rmannibucau.mylang.thread.api;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Scope of tasks forked in a pool (see ThreadPoolManager.fanOut()):
+ *
+ * <pre>
+ * try (final FanOut&lt;Price&gt; prices = manager.fanOut("io", 4)) {
+ *     providers.forEach(p -&gt; prices.fork(() -&gt; p.price(item)));
+ *     return prices.join(); // or prices.next() to handle them as they complete
+ * }
+ * </pre>
+ *
+ * At most parallelism tasks run at once, the others wait in the scope (not in the pool queue).
+ * The first failure cancels the other tasks (running ones are interrupted) and is rethrown by join() and next().
+ * close() cancels what is still running and waits for it so no task outlives the scope, it only waits for the tasks
+ * which started: one still queued is cancelled and skipped, so a pool dropping it (shutdownNow(), a discard policy)
+ * doesn't block close().
+ * The deadline of the forking thread is propagated to the tasks.
+ */
+public class FanOut<T> implements AutoCloseable {
+    private final Executor pool;
+    private final int parallelism;
+    private final List<Branch> branches = new ArrayList<>(); // guarded by this, fork order
+    private final Deque<Branch> pending = new ArrayDeque<>(); // guarded by this, waiting for a parallelism slot
+    private final BlockingQueue<Branch> completed = new LinkedBlockingQueue<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private int running; // guarded by this, parallelism slots in use
+    private int started; // guarded by this, branches running their task
+    private int consumed; // guarded by this
+    private boolean closed; // guarded by this
+
+    FanOut(final Executor pool, final int parallelism) {
+        this.pool = pool;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param task the task to run in the pool.
+     * @return the result of the task.
+     */
+    public CompletableFuture<T> fork(final Callable<? extends T> task) {
+        final Branch branch = new Branch(task, Deadline.get());
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Fan out already closed");
+            }
+            branches.add(branch);
+            if (failure.get() != null) { // don't start anything once failed
+                branch.result.cancel(false);
+                completed.add(branch);
+                return branch.result;
+            }
+            if (parallelism > 0 && running >= parallelism) {
+                pending.add(branch);
+                return branch.result;
+            }
+            running++;
+        }
+        submit(branch);
+        return branch.result;
+    }
+
+    /**
+     * @return the result of the next completed task.
+     * @throws NoSuchElementException if all the results were already returned.
+     */
+    public T next() {
+        synchronized (this) {
+            if (consumed >= branches.size()) {
+                throw new NoSuchElementException("No more forked task");
+            }
+            consumed++;
+        }
+        try {
+            return value(completed.take());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for a forked task", e);
+        }
+    }
+
+    /**
+     * @return the results of all the forked tasks, in fork order.
+     */
+    public List<T> join() {
+        final List<Branch> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(branches);
+        }
+        final List<T> results = new ArrayList<>(snapshot.size());
+        for (final Branch branch : snapshot) {
+            results.add(value(branch));
+        }
+        return results;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) { // before cancelling to not miss a concurrent fork
+            closed = true;
+        }
+        cancel();
+        boolean interrupted = false;
+        synchronized (this) {
+            while (started > 0) {
+                try {
+                    wait();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private T value(final Branch branch) {
+        try {
+            return branch.result.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for a forked task", e);
+        } catch (final ExecutionException | CancellationException e) {
+            // the failure is recorded after the branch completes, a concurrent reader can see the branch first
+            final Throwable recorded = failure.get();
+            final Throwable cause = recorded != null ? recorded : (ExecutionException.class.isInstance(e) ? e.getCause() : null);
+            if (cause == null) {
+                throw new CancellationException("Fan out cancelled");
+            }
+            if (RuntimeException.class.isInstance(cause)) {
+                throw RuntimeException.class.cast(cause);
+            }
+            if (Error.class.isInstance(cause)) {
+                throw Error.class.cast(cause);
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private void cancel() {
+        final List<Branch> toCancel;
+        synchronized (this) {
+            toCancel = new ArrayList<>(branches);
+            pending.forEach(completed::add); // never started, they complete now
+            pending.clear();
+        }
+        toCancel.forEach(Branch::cancel);
+    }
+
+    private void submit(final Branch branch) {
+        try {
+            pool.execute(branch);
+        } catch (final RejectedExecutionException ree) {
+            branch.result.completeExceptionally(ree);
+            onDone(branch, ree);
+        }
+    }
+
+    // error is set only if it completed the branch, a cancelled branch failing is not a failure of the scope
+    private void onDone(final Branch branch, final Throwable error) {
+        final Branch next;
+        synchronized (this) {
+            next = pending.poll();
+            if (next == null) {
+                running--;
+            }
+        }
+        completed.add(branch);
+        if (error != null && failure.compareAndSet(null, error)) {
+            cancel();
+        }
+        if (next != null) {
+            submit(next);
+        }
+    }
+
+    private final class Branch implements Runnable {
+        private final Callable<? extends T> task;
+        private final long deadline;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private Thread runner; // guarded by this
+        private boolean interrupted; // guarded by this
+
+        private Branch(final Callable<? extends T> task, final long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            final boolean cancelled;
+            synchronized (this) { // cancel() completes the result under this lock so close() sees the started branches
+                cancelled = result.isDone();
+                if (!cancelled) {
+                    runner = Thread.currentThread();
+                    synchronized (FanOut.this) {
+                        started++;
+                    }
+                }
+            }
+            if (cancelled) { // while queued in the pool
+                onDone(this, null);
+                return;
+            }
+            Throwable error = null;
+            final Long previous = Deadline.set(deadline);
+            try {
+                result.complete(task.call());
+            } catch (final Throwable e) {
+                if (result.completeExceptionally(e)) {
+                    error = e;
+                }
+            } finally {
+                Deadline.restore(previous);
+                synchronized (this) {
+                    runner = null;
+                    if (interrupted) { // don't leak our interruption to the next task of the pool thread
+                        Thread.interrupted();
+                    }
+                }
+                synchronized (FanOut.this) {
+                    started--;
+                    FanOut.this.notifyAll();
+                }
+                onDone(this, error);
+            }
+        }
+
+        private synchronized void cancel() {
+            if (result.cancel(false) && runner != null) {
+                interrupted = true;
+                runner.interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.github.rmannibucau.mylang.thread.api;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the elements of an iterator (a database cursor for instance) from a pool: the iterator is opened
+ * at the first request and read only while the subscriber has demand, so a single element is in memory at a time.
+ * Each subscriber gets its own iterator, it is closed on completion or cancellation if it is AutoCloseable.
+ *
+ * A drain emits at most a batch of elements before being resubmitted to not monopolize a pool thread.
+ * Use a direct executor (Runnable::run) to read in the requesting thread, for instance in a @Futureable method.
+ */
+public class IteratorPublisher<T> implements Publisher<T> {
+    private static final int BATCH = 128;
+
+    private final Executor pool;
+    private final Callable<? extends Iterator<? extends T>> source;
+
+    /**
+     * @param pool where the iterator is read.
+     * @param source opens the iterator of a subscriber.
+     */
+    public IteratorPublisher(final Executor pool, final Callable<? extends Iterator<? extends T>> source) {
+        this.pool = pool;
+        this.source = source;
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber can't be null");
+        }
+        subscriber.onSubscribe(new IteratorSubscription<>(pool, source, subscriber));
+    }
+
+    private static final class IteratorSubscription<T> implements Subscription {
+        private final Executor pool;
+        private final Callable<? extends Iterator<? extends T>> source;
+        private final Subscriber<? super T> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+
+        // only used by the draining thread, the one moving wip from 0 or resubmitting, wip is never released once done
+        private Iterator<? extends T> iterator;
+        private boolean done;
+
+        private IteratorSubscription(final Executor pool, final Callable<? extends Iterator<? extends T>> source,
+                                     final Subscriber<? super T> subscriber) {
+            this.pool = pool;
+            this.source = source;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Request should be positive (rule 3.9): " + n);
+            } else {
+                requested.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule(); // the draining thread closes the iterator
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                submit();
+            }
+        }
+
+        private void submit() {
+            try {
+                pool.execute(this::drain);
+            } catch (final RejectedExecutionException ree) {
+                // wip is still held so this thread is the draining one: terminate here and never release it
+                terminate(ree);
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            int emitted = 0;
+            while (true) {
+                if (done) {
+                    return;
+                }
+                if (cancelled || invalidRequest != null) {
+                    terminate(cancelled ? null : invalidRequest);
+                    return;
+                }
+                try {
+                    while (requested.get() > 0 && !cancelled) {
+                        if (iterator == null) {
+                            iterator = source.call();
+                        }
+                        if (!iterator.hasNext()) {
+                            terminate(null);
+                            subscriber.onComplete();
+                            return;
+                        }
+                        if (emitted++ == BATCH) { // let other tasks use the thread
+                            submit();
+                            return;
+                        }
+                        final T next = iterator.next();
+                        requested.decrementAndGet();
+                        subscriber.onNext(next);
+                    }
+                } catch (final Exception e) {
+                    terminate(e);
+                    return;
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        private void terminate(final Throwable error) {
+            done = true;
+            final Iterator<? extends T> current = iterator;
+            iterator = null;
+            if (AutoCloseable.class.isInstance(current)) {
+                try {
+                    AutoCloseable.class.cast(current).close();
+                } catch (final Exception e) {
+                    // no-op, the subscriber doesn't care anymore
+                }
+            }
+            if (error != null) {
+                subscriber.onError(error);
+            }
+        }
+    }
+}
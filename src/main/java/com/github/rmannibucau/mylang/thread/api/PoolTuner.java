@@ -0,0 +1,78 @@
+package com.github.rmannibucau.mylang.thread.api;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples a pool periodically (on the manager timer) and adjusts its core size. The queue time is estimated
+ * with Little's law (queued tasks / throughput) so tasks are not instrumented: above the target the core
+ * grows by a quarter, when nothing is queued and less than half of the threads are active it shrinks by a quarter
+ * (not below the active threads), idle threads above the core size then terminate.
+ */
+class PoolTuner implements Runnable {
+    private final ThreadPoolManager manager;
+    private final ThreadPoolExecutor pool;
+    private final int minCore;
+    private final int maxCore;
+    private final long targetQueueTimeNanos;
+    private final long periodNanos;
+
+    // only used by the timer thread
+    private long lastCompleted;
+    private long lastSample;
+
+    PoolTuner(final ThreadPoolManager manager, final ThreadPoolExecutor pool, final int minCore, final int maxCore,
+              final long targetQueueTimeNanos, final long periodNanos) {
+        this.manager = manager;
+        this.pool = pool;
+        this.minCore = minCore;
+        this.maxCore = maxCore;
+        this.targetQueueTimeNanos = targetQueueTimeNanos;
+        this.periodNanos = periodNanos;
+    }
+
+    void start() {
+        lastCompleted = pool.getCompletedTaskCount();
+        lastSample = System.nanoTime();
+        manager.getTimer().schedule(this, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void run() {
+        if (!manager.isRunning() || pool.isShutdown()) {
+            return;
+        }
+        try {
+            tune();
+        } finally {
+            manager.getTimer().schedule(this, periodNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void tune() {
+        final long now = System.nanoTime();
+        final long completed = pool.getCompletedTaskCount();
+        final double throughput = (completed - lastCompleted) / (double) Math.max(1, now - lastSample); // tasks per ns
+        lastCompleted = completed;
+        lastSample = now;
+
+        final int queued = pool.getQueue().size();
+        final int core = pool.getCorePoolSize();
+        final double queueTime = queued == 0 ? 0 : (throughput > 0 ? queued / throughput : Double.MAX_VALUE);
+        final int step = Math.max(1, core / 4);
+        if (queueTime > targetQueueTimeNanos) {
+            final int newCore = Math.min(maxCore, core + step);
+            if (newCore > core) {
+                ThreadPoolManager.resize(pool, newCore, Math.max(newCore, pool.getMaximumPoolSize()));
+            }
+        } else if (queued == 0) {
+            final int active = pool.getActiveCount();
+            if (active < core / 2) {
+                final int newCore = Math.max(minCore, Math.max(active, core - step));
+                if (newCore < core) {
+                    ThreadPoolManager.resize(pool, newCore, pool.getMaximumPoolSize());
+                }
+            }
+        }
+    }
+}
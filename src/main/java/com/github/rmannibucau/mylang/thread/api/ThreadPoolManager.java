@@ -1,19 +1,24 @@
 package com.github.rmannibucau.mylang.thread.api;
 
+import com.github.rmannibucau.mylang.metrics.api.MetricsRegistry;
+import com.github.rmannibucau.mylang.metrics.api.PoolMetrics;
+
 import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.context.Initialized;
 import javax.enterprise.event.Event;
 import javax.enterprise.event.Observes;
 import javax.enterprise.inject.Produces;
+import javax.enterprise.inject.Typed;
 import javax.enterprise.inject.spi.InjectionPoint;
 import javax.inject.Inject;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadFactory;
@@ -26,15 +31,23 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 @ApplicationScoped
 public class ThreadPoolManager {
-    private static final ThreadPoolModel DEFAULT_MODEL = new ThreadPoolModel(3, 10, 0, MILLISECONDS, null, null, null, 0, MILLISECONDS);
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    // pools not registered keep an unbounded queue, only registered ones are bounded by default
+    private static final ThreadPoolModel DEFAULT_MODEL = new ThreadPoolModel(
+        3, 10, 0, MILLISECONDS, null, 0, null, null, 0, MILLISECONDS, PoolType.THREAD_POOL, 0, 0, null, -1);
 
     private final AtomicBoolean running = new AtomicBoolean();
-    private final Map<String, ThreadPoolModel> models = new HashMap<>();
-    private final ConcurrentMap<String, ThreadPoolExecutor> pools = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ThreadPoolModel> models = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ExecutorService> pools = new ConcurrentHashMap<>();
+    // shared by the timeouts of the pools users (10ms precision, a round is ~5s)
+    private final TimerWheel timer = new TimerWheel("mylang-timer", 10, MILLISECONDS, 512);
 
     @Inject
     private Event<ThreadPoolManager> registrationEvent;
 
+    @Inject
+    private MetricsRegistry metrics;
+
     void init(@Observes @Initialized(ApplicationScoped.class) final Object start) {
         registrationEvent.fire(this);
         running.set(true);
@@ -43,22 +56,107 @@ public class ThreadPoolManager {
     @PreDestroy
     void destroy() {
         running.set(false);
+        timer.stop();
         pools.forEach((n, p) -> ofNullable(models.get(n)).orElseGet(() -> DEFAULT_MODEL).destroy(p));
     }
 
     @Produces
     @ThreadPool("")
-    public ThreadPoolExecutor getOrCreatePool(final InjectionPoint ip) {
+    public ExecutorService getOrCreatePool(final InjectionPoint ip) {
         return getOrCreatePool(ip.getAnnotated().getAnnotation(ThreadPool.class).value());
     }
 
-    public ThreadPoolExecutor getOrCreatePool(String poolName) {
+    @Produces
+    @ThreadPool("")
+    @Typed(ThreadPoolExecutor.class)
+    public ThreadPoolExecutor getOrCreateThreadPoolExecutor(final InjectionPoint ip) {
+        final String name = ip.getAnnotated().getAnnotation(ThreadPool.class).value();
+        final ExecutorService pool = getOrCreatePool(name);
+        if (!ThreadPoolExecutor.class.isInstance(pool)) {
+            throw new IllegalStateException("Pool " + name + " is not a ThreadPoolExecutor, inject an ExecutorService");
+        }
+        return ThreadPoolExecutor.class.cast(pool);
+    }
+
+    public ExecutorService getOrCreatePool(String poolName) {
         if (!running.get()) {
             throw new IllegalStateException("Pool not available");
         }
-        return pools.computeIfAbsent(poolName, name ->
-            ofNullable(models.get(name)).map(ThreadPoolModel::create)
-                .orElseGet(() -> new ThreadPoolExecutor(DEFAULT_MODEL.core, DEFAULT_MODEL.max, DEFAULT_MODEL.keepAliveTime, MILLISECONDS, new LinkedBlockingDeque<>())));
+        final ExecutorService existing = pools.get(poolName);
+        if (existing != null) {
+            return existing;
+        }
+        return pools.computeIfAbsent(poolName, name -> {
+            final ThreadPoolModel model = ofNullable(models.get(name)).orElse(DEFAULT_MODEL);
+            final ExecutorService executor = model.create(name);
+            if (ThreadPoolExecutor.class.isInstance(executor)) {
+                final ThreadPoolExecutor threadPool = ThreadPoolExecutor.class.cast(executor);
+                final PoolMetrics poolMetrics = metrics.registerPool(name, threadPool);
+                if (TracedThreadPoolExecutor.class.isInstance(threadPool)) {
+                    TracedThreadPoolExecutor.class.cast(threadPool).setMetrics(poolMetrics);
+                }
+                if (model.tuning != null) {
+                    new PoolTuner(this, threadPool, model.tuning.minCore, model.tuning.maxCore,
+                        model.tuning.targetQueueTimeNanos, model.tuning.periodNanos).start();
+                }
+            } else if (ForkJoinPool.class.isInstance(executor)) {
+                metrics.registerPool(name, ForkJoinPool.class.cast(executor));
+            }
+            return executor;
+        });
+    }
+
+    /**
+     * @param poolName the pool running the tasks.
+     * @param parallelism max number of tasks of the scope running at once, 0 means unbounded.
+     * @param <T> the type of the task results.
+     * @return a scope to fork tasks in the pool and gather their results, close it to not leak tasks.
+     */
+    public <T> FanOut<T> fanOut(final String poolName, final int parallelism) {
+        return new FanOut<>(getOrCreatePool(poolName), parallelism);
+    }
+
+    public TimerWheel getTimer() {
+        return timer;
+    }
+
+    boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * Resizes a pool at runtime, the pool can be in use and, if not yet created, will use these sizes.
+     * An auto-tuned pool continues its tuning from these sizes.
+     *
+     * @param name name of the pool.
+     * @param core new core size.
+     * @param max new max size.
+     */
+    public void reconfigure(final String name, final int core, final int max) {
+        if (core < 0 || max <= 0 || max < core) {
+            throw new IllegalArgumentException("Invalid sizes for pool " + name + ": core=" + core + ", max=" + max);
+        }
+        models.compute(name, (key, model) -> ofNullable(model).orElse(DEFAULT_MODEL).withSizes(core, max));
+        final ExecutorService pool = pools.get(name);
+        if (pool == null) {
+            return;
+        }
+        if (!ThreadPoolExecutor.class.isInstance(pool)) {
+            throw new IllegalStateException("Pool " + name + " is not a ThreadPoolExecutor, it can't be resized");
+        }
+        resize(ThreadPoolExecutor.class.cast(pool), core, max);
+    }
+
+    static void resize(final ThreadPoolExecutor pool, final int core, final int max) {
+        synchronized (pool) { // core <= max must hold after each call
+            if (max >= pool.getCorePoolSize()) {
+                pool.setMaximumPoolSize(max);
+                pool.setCorePoolSize(core);
+            } else {
+                pool.setCorePoolSize(core);
+                pool.setMaximumPoolSize(max);
+            }
+        }
     }
 
     /**
@@ -80,8 +178,14 @@ public class ThreadPoolManager {
         private long keepAliveTime = 0;
         private TimeUnit keepAliveTimeUnit = MILLISECONDS;
         private BlockingQueue<Runnable> workQueue;
+        private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
         private ThreadFactory threadFactory;
         private RejectedExecutionHandler handler;
+        private PoolType type = PoolType.THREAD_POOL;
+        private int maxConcurrency;
+        private int parallelism;
+        private Tuning tuning;
+        private long slowTaskNanos = -1;
 
         private ThreadPoolBuilder(final ThreadPoolManager registration, final String name) {
             this.registration = registration;
@@ -115,6 +219,18 @@ public class ThreadPoolManager {
             return this;
         }
 
+        /**
+         * @param queueCapacity capacity of the default work queue (BoundedWorkQueue), ignored if a work queue is set.
+         *                      0 or less uses an unbounded queue as pools which are not registered.
+         *                      When the queue is full the pool grows up to max threads then the rejected execution handler
+         *                      is called (see BackPressure).
+         * @return this builder.
+         */
+        public ThreadPoolBuilder withQueueCapacity(final int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
         public ThreadPoolBuilder withThreadFactory(final ThreadFactory threadFactory) {
             this.threadFactory = threadFactory;
             return this;
@@ -125,8 +241,78 @@ public class ThreadPoolManager {
             return this;
         }
 
+        /**
+         * Runs each task in a new virtual thread (requires java 21), core, max, keep alive time, work queue,
+         * thread factory and rejected execution handler are then ignored.
+         *
+         * @return this builder.
+         */
+        public ThreadPoolBuilder withVirtualThreads() {
+            this.type = PoolType.VIRTUAL_THREADS;
+            return this;
+        }
+
+        /**
+         * @param maxConcurrency max number of tasks running concurrently in a virtual thread pool, 0 means unbounded.
+         * @return this builder.
+         */
+        public ThreadPoolBuilder withMaxConcurrency(final int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        /**
+         * Uses a work stealing ForkJoinPool (a deque per worker) instead of a ThreadPoolExecutor
+         * which shares a single queue between all threads, it suits CPU bound tasks submitted from many threads.
+         * Core, max, keep alive time, work queue, thread factory and rejected execution handler are then ignored.
+         *
+         * @param parallelism number of workers, 0 to use the number of available processors.
+         * @return this builder.
+         */
+        public ThreadPoolBuilder withWorkStealing(final int parallelism) {
+            this.type = PoolType.WORK_STEALING;
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Adjusts the core size of the pool at runtime between minCore and maxCore: it grows while the estimated
+         * queue time (queued tasks / throughput) exceeds the target and shrinks while the pool is idle.
+         * Max is raised to follow core if needed.
+         *
+         * @param minCore min core size.
+         * @param maxCore max core size.
+         * @param targetQueueTime acceptable queue time.
+         * @param period how often the pool is sampled.
+         * @param unit unit of targetQueueTime and period.
+         * @return this builder.
+         */
+        public ThreadPoolBuilder withAutoTuning(final int minCore, final int maxCore, final long targetQueueTime,
+                                                final long period, final TimeUnit unit) {
+            if (minCore < 0 || maxCore < Math.max(1, minCore) || period <= 0) {
+                throw new IllegalArgumentException("Invalid auto tuning for pool " + name);
+            }
+            this.tuning = new Tuning(minCore, maxCore, unit.toNanos(targetQueueTime), unit.toNanos(period));
+            return this;
+        }
+
+        /**
+         * Records the queue time and the execution time of each task in the pool metrics
+         * (see TracedThreadPoolExecutor), only for thread pools.
+         *
+         * @param slowTaskThreshold tasks taking longer (queue and execution) are sampled, 0 to not sample.
+         * @param unit threshold unit.
+         * @return this builder.
+         */
+        public ThreadPoolBuilder withTracing(final long slowTaskThreshold, final TimeUnit unit) {
+            this.slowTaskNanos = unit.toNanos(Math.max(0, slowTaskThreshold));
+            return this;
+        }
+
         public ThreadPoolManager add() {
-            this.registration.models.put(name, new ThreadPoolModel(core, max, keepAliveTime, keepAliveTimeUnit, workQueue, threadFactory, handler, shutdownTime, shutdownTimeUnit));
+            this.registration.models.put(name, new ThreadPoolModel(
+                core, max, keepAliveTime, keepAliveTimeUnit, workQueue, queueCapacity, threadFactory, handler, shutdownTime, shutdownTimeUnit,
+                type, maxConcurrency, parallelism, tuning, slowTaskNanos));
             return registration;
         }
     }
@@ -137,33 +323,73 @@ public class ThreadPoolManager {
         private final long keepAliveTime;
         private final TimeUnit keepAliveTimeUnit;
         private final BlockingQueue<Runnable> workQueue;
+        private final int queueCapacity;
         private final ThreadFactory threadFactory;
         private final RejectedExecutionHandler handler;
         private final long shutdownTime;
         private final TimeUnit shutdownTimeUnit;
+        private final PoolType type;
+        private final int maxConcurrency;
+        private final int parallelism;
+        private final Tuning tuning;
+        private final long slowTaskNanos; // negative when not traced
 
         private ThreadPoolModel(final int core, final int max,
                                 final long keepAliveTime, final TimeUnit keepAliveTimeUnit,
-                                final BlockingQueue<Runnable> workQueue,
+                                final BlockingQueue<Runnable> workQueue, final int queueCapacity,
                                 final ThreadFactory threadFactory,
                                 final RejectedExecutionHandler handler,
-                                final long shutdownTime, final TimeUnit shutdownTimeUnit) {
+                                final long shutdownTime, final TimeUnit shutdownTimeUnit,
+                                final PoolType type, final int maxConcurrency, final int parallelism,
+                                final Tuning tuning, final long slowTaskNanos) {
             this.core = core;
             this.max = max;
             this.keepAliveTime = keepAliveTime;
             this.keepAliveTimeUnit = keepAliveTimeUnit == null ? MILLISECONDS : keepAliveTimeUnit;
             this.shutdownTime = shutdownTime;
             this.shutdownTimeUnit = shutdownTimeUnit == null ? MILLISECONDS : shutdownTimeUnit;
-            this.workQueue = workQueue == null ? new LinkedBlockingDeque<>() : workQueue;
+            this.workQueue = workQueue; // null means a new queue per pool, bounded if queueCapacity > 0
+            this.queueCapacity = queueCapacity;
             this.threadFactory = threadFactory == null ? Executors.defaultThreadFactory() : threadFactory;
             this.handler = handler == null ? new ThreadPoolExecutor.AbortPolicy() : handler;
+            this.type = type;
+            this.maxConcurrency = maxConcurrency;
+            this.parallelism = parallelism;
+            this.tuning = tuning;
+            this.slowTaskNanos = slowTaskNanos;
+        }
+
+        private ThreadPoolModel withSizes(final int core, final int max) {
+            return new ThreadPoolModel(
+                core, max, keepAliveTime, keepAliveTimeUnit, workQueue, queueCapacity, threadFactory, handler, shutdownTime, shutdownTimeUnit,
+                type, maxConcurrency, parallelism, tuning, slowTaskNanos);
         }
 
-        private ThreadPoolExecutor create() {
-            return new ThreadPoolExecutor(core, max, keepAliveTime, keepAliveTimeUnit, workQueue, threadFactory, handler);
+        private ExecutorService create(final String name) {
+            switch (type) {
+                case VIRTUAL_THREADS:
+                    return new VirtualThreadPool(name, maxConcurrency);
+                case WORK_STEALING:
+                    return new ForkJoinPool(
+                        parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors(),
+                        pool -> {
+                            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                            thread.setName(name + "-" + thread.getPoolIndex());
+                            return thread;
+                        },
+                        null, true);
+                default:
+                    final BlockingQueue<Runnable> queue = workQueue != null ? workQueue :
+                        (queueCapacity > 0 ? new BoundedWorkQueue<>(queueCapacity) : new LinkedBlockingDeque<>());
+                    if (slowTaskNanos >= 0) {
+                        return new TracedThreadPoolExecutor(
+                            core, max, keepAliveTime, keepAliveTimeUnit, queue, threadFactory, handler, slowTaskNanos);
+                    }
+                    return new ThreadPoolExecutor(core, max, keepAliveTime, keepAliveTimeUnit, queue, threadFactory, handler);
+            }
         }
 
-        private void destroy(final ThreadPoolExecutor executor) {
+        private void destroy(final ExecutorService executor) {
             executor.shutdown();
             if (shutdownTime > 0) {
                 try {
@@ -174,4 +400,22 @@ public class ThreadPoolManager {
             }
         }
     }
+
+    private static class Tuning {
+        private final int minCore;
+        private final int maxCore;
+        private final long targetQueueTimeNanos;
+        private final long periodNanos;
+
+        private Tuning(final int minCore, final int maxCore, final long targetQueueTimeNanos, final long periodNanos) {
+            this.minCore = minCore;
+            this.maxCore = maxCore;
+            this.targetQueueTimeNanos = targetQueueTimeNanos;
+            this.periodNanos = periodNanos;
+        }
+    }
+
+    private enum PoolType {
+        THREAD_POOL, VIRTUAL_THREADS, WORK_STEALING
+    }
 }
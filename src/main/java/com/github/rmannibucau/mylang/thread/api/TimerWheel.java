@@ -0,0 +1,145 @@
+package com.github.rmannibucau.mylang.thread.api;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timer wheel: timeouts are grouped by tick in a ring of buckets and a single thread
+ * expires the bucket of the current tick. Scheduling only enqueues the timeout (lock free),
+ * cancelling only flags it, so it is cheap enough to arm a timeout per call.
+ * The precision is the tick duration.
+ */
+public class TimerWheel {
+    private final long tickNanos;
+    private final Queue<Timeout>[] wheel;
+    private final int mask;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final String name;
+    private final long start = System.nanoTime();
+
+    private volatile Thread worker;
+    private volatile boolean running = true;
+
+    public TimerWheel(final String name, final long tick, final TimeUnit tickUnit, final int ticksPerWheel) {
+        if (tick <= 0 || ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("tick and ticksPerWheel should be positive");
+        }
+        this.name = name;
+        this.tickNanos = tickUnit.toNanos(tick);
+        final int size = ticksPerWheel == 1 ? 1 : Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        this.mask = size - 1;
+        this.wheel = new Queue[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * @param task what to execute when the timeout expires, it runs in the timer thread so must be fast.
+     * @param delay delay before the expiration.
+     * @param unit delay unit.
+     * @return the timeout handle to cancel it.
+     */
+    public Timeout schedule(final Runnable task, final long delay, final TimeUnit unit) {
+        if (!running) {
+            throw new IllegalStateException("Timer " + name + " stopped");
+        }
+        final Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(delay));
+        pending.add(timeout);
+        if (worker == null) {
+            startWorker();
+        }
+        return timeout;
+    }
+
+    public void stop() {
+        running = false;
+        final Thread thread = worker;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private synchronized void startWorker() {
+        if (worker != null) {
+            return;
+        }
+        final Thread thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        worker = thread;
+        thread.start();
+    }
+
+    private void run() {
+        long tick = 0;
+        while (running) {
+            final long tickEnd = start + (tick + 1) * tickNanos;
+            long sleep;
+            while (running && (sleep = tickEnd - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, sleep);
+            }
+            if (!running) {
+                break;
+            }
+            transferPending(tick);
+            expire(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+        pending.clear();
+    }
+
+    private void transferPending(final long currentTick) {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            final long ticks = Math.max(currentTick, (timeout.deadline - start) / tickNanos);
+            timeout.rounds = (ticks - currentTick) / wheel.length;
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    private void expire(final Queue<Timeout> bucket) {
+        final Iterator<Timeout> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            final Timeout timeout = iterator.next();
+            if (timeout.cancelled) {
+                iterator.remove();
+            } else if (timeout.rounds <= 0) {
+                iterator.remove();
+                try {
+                    timeout.task.run();
+                } catch (final RuntimeException re) {
+                    // no-op, a task must not kill the timer
+                }
+            } else {
+                timeout.rounds--;
+            }
+        }
+    }
+
+    public static final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private volatile boolean cancelled;
+        private long rounds; // only used by the timer thread
+
+        private Timeout(final Runnable task, final long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
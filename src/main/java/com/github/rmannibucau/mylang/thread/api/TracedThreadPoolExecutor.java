@@ -0,0 +1,79 @@
+package com.github.rmannibucau.mylang.thread.api;
+
+import com.github.rmannibucau.mylang.metrics.api.PoolMetrics;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ThreadPoolExecutor recording for each task its queue time (execute to start) and its execution time
+ * (start to end) in the pool metrics. Tasks slower than a threshold are sampled with their description.
+ *
+ * Tasks are wrapped once the metrics are set so the queue and shutdownNow() expose the wrappers.
+ */
+public class TracedThreadPoolExecutor extends ThreadPoolExecutor {
+    private final long slowTaskNanos;
+    private volatile PoolMetrics metrics;
+
+    /**
+     * @param slowTaskNanos tasks taking longer (queue and execution) are sampled, 0 to not sample.
+     */
+    public TracedThreadPoolExecutor(final int core, final int max, final long keepAliveTime, final TimeUnit unit,
+                                    final BlockingQueue<Runnable> workQueue, final ThreadFactory threadFactory,
+                                    final RejectedExecutionHandler handler, final long slowTaskNanos) {
+        super(core, max, keepAliveTime, unit, workQueue, threadFactory, handler);
+        this.slowTaskNanos = slowTaskNanos;
+    }
+
+    public void setMetrics(final PoolMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        execute(command, null);
+    }
+
+    /**
+     * @param command the task.
+     * @param description what the task does (a method name for instance), used when it is sampled as slow.
+     */
+    public void execute(final Runnable command, final String description) {
+        final PoolMetrics current = metrics;
+        super.execute(current == null ? command : new TracedTask(command, description, current));
+    }
+
+    final class TracedTask implements Runnable {
+        private final Runnable delegate;
+        private final String description;
+        private final PoolMetrics metrics;
+        private final long enqueued = System.nanoTime();
+
+        private TracedTask(final Runnable delegate, final String description, final PoolMetrics metrics) {
+            this.delegate = delegate;
+            this.description = description;
+            this.metrics = metrics;
+        }
+
+        Runnable getDelegate() {
+            return delegate;
+        }
+
+        @Override
+        public void run() {
+            final long start = System.nanoTime();
+            try {
+                delegate.run();
+            } finally {
+                final long end = System.nanoTime();
+                metrics.onTask(start - enqueued, end - start);
+                if (slowTaskNanos > 0 && end - enqueued >= slowTaskNanos) {
+                    metrics.onSlowTask(description != null ? description : delegate.getClass().getName(), start - enqueued, end - start);
+                }
+            }
+        }
+    }
+}
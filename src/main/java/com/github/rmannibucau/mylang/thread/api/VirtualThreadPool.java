@@ -0,0 +1,107 @@
+package com.github.rmannibucau.mylang.thread.api;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes each task in a new virtual thread, the optional concurrency limit is enforced
+ * by a semaphore acquired in the virtual thread so submitters are never blocked.
+ * The library targets java 8 so virtual threads (java 21) are looked up reflectively.
+ */
+final class VirtualThreadPool extends AbstractExecutorService {
+    private final ExecutorService delegate;
+    private final Semaphore concurrency;
+
+    VirtualThreadPool(final String name, final int maxConcurrency) {
+        this.delegate = newVirtualThreadPerTaskExecutor(name);
+        this.concurrency = maxConcurrency > 0 ? new Semaphore(maxConcurrency) : null;
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        if (concurrency == null) {
+            delegate.execute(command);
+            return;
+        }
+        delegate.execute(() -> {
+            try {
+                concurrency.acquire();
+            } catch (final InterruptedException e) { // shutdownNow(), the task must still complete its result
+                Thread.currentThread().interrupt();
+                onInterruptedWhileWaiting(command);
+                return;
+            }
+            try {
+                command.run();
+            } finally {
+                concurrency.release();
+            }
+        });
+    }
+
+    /**
+     * A plain Future is cancelled. Other tasks (CompletableFuture async tasks for instance) can only
+     * complete their result by running so they run, without permit and with the interrupted flag set.
+     */
+    private static void onInterruptedWhileWaiting(final Runnable command) {
+        if (Future.class.isInstance(command) && !ForkJoinTask.class.isInstance(command)) {
+            Future.class.cast(command).cancel(false);
+        } else {
+            command.run();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor(final String name) {
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            final Class<?> builderType = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            final Object builder = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(builderType)).invoke();
+            final MethodHandle named = lookup.findVirtual(builderType, "name", MethodType.methodType(builderType, String.class, long.class));
+            final MethodHandle factory = lookup.findVirtual(builderType, "factory", MethodType.methodType(ThreadFactory.class));
+            final ThreadFactory threadFactory = ThreadFactory.class.cast(factory.invoke(named.invoke(builder, name + "-", 0L)));
+            return ExecutorService.class.cast(lookup.findStatic(Executors.class, "newThreadPerTaskExecutor",
+                MethodType.methodType(ExecutorService.class, ThreadFactory.class)).invoke(threadFactory));
+        } catch (final ClassNotFoundException | NoSuchMethodException e) {
+            throw new IllegalStateException("Virtual threads require java 21 or later, can't create pool " + name, e);
+        } catch (final RuntimeException | Error e) {
+            throw e;
+        } catch (final Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
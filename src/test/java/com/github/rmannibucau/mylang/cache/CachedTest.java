@@ -0,0 +1,172 @@
+package com.github.rmannibucau.mylang.cache;
+
+import com.github.rmannibucau.mylang.cache.api.Cached;
+import com.github.rmannibucau.mylang.cache.api.TinyLfuCache;
+import com.github.rmannibucau.mylang.metrics.api.CacheMetrics;
+import com.github.rmannibucau.mylang.metrics.api.MetricsRegistry;
+import org.apache.openejb.junit.ApplicationComposer;
+import org.apache.openejb.testing.Classes;
+import org.apache.openejb.testing.Default;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@Default
+@Classes(cdi = true)
+@RunWith(ApplicationComposer.class)
+public class CachedTest {
+    @Inject
+    private Service service;
+
+    @Inject
+    private MetricsRegistry registry;
+
+    @Test
+    public void memoize() {
+        assertEquals("a#1", service.compute("a"));
+        assertEquals("a#1", service.compute("a"));
+        assertEquals("b#2", service.compute("b"));
+        assertNull(service.nothing());
+        assertNull(service.nothing());
+        assertEquals(3, service.getCalls());
+
+        final CacheMetrics metrics = registry.getCaches().get(Service.class.getName());
+        assertNotNull(metrics);
+        assertEquals(2, metrics.getHitCount());
+        assertEquals(3, metrics.getMissCount());
+    }
+
+    @Test
+    public void ttl() throws InterruptedException {
+        final String first = service.expiring("key");
+        assertEquals(first, service.expiring("key"));
+        Thread.sleep(150);
+        assertNotSame(first, service.expiring("key"));
+    }
+
+    @Test
+    public void offHeap() {
+        final StringBuilder first = service.offHeap("value");
+        final StringBuilder second = service.offHeap("value");
+        assertNotSame(first, second); // deserialized
+        assertEquals(first.toString(), second.toString());
+    }
+
+    @Test
+    public void completionStage() {
+        final CompletableFuture<String> failing = service.async("key");
+        assertSame(failing, service.async("key")); // not cached while pending
+        failing.completeExceptionally(new IllegalStateException("failed"));
+        final CompletableFuture<String> succeeding = service.async("key");
+        assertNotSame(failing, succeeding);
+        succeeding.complete("done");
+        final CompletableFuture<String> cached = service.async("key");
+        assertNotSame(succeeding, cached); // each caller gets its own stage
+        assertEquals("done", cached.getNow(null));
+        cached.cancel(false);
+        succeeding.obtrudeValue("obtruded");
+        assertEquals("done", service.async("key").getNow(null));
+        assertEquals(3, service.getAsyncCalls());
+    }
+
+    @Test
+    public void offHeapCompletionStage() {
+        final CompletableFuture<String> first = service.offHeapAsync("key");
+        final CompletableFuture<String> second = service.offHeapAsync("key");
+        assertNotSame(first, second);
+        assertEquals("key#1", second.getNow(null));
+        assertEquals(1, service.getOffHeapAsyncCalls());
+    }
+
+    @Test
+    public void frequentEntriesSurvive() {
+        final TinyLfuCache cache = new TinyLfuCache(100, 0, TimeUnit.MILLISECONDS, false);
+        for (int i = 0; i < 100; i++) {
+            cache.put("hot" + i, i);
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 100; i++) {
+                cache.get("hot" + i);
+            }
+        }
+        for (int i = 0; i < 1_000; i++) { // scan of one hit wonders, an LRU would keep no hot entry
+            cache.put("cold" + i, i);
+        }
+        assertTrue(cache.size() <= 100);
+        int hot = 0;
+        for (int i = 0; i < 100; i++) {
+            if (cache.get("hot" + i) != null) {
+                hot++;
+            }
+        }
+        assertTrue("hot entries: " + hot, hot >= 80);
+        assertTrue(cache.getEvictionCount() >= 1_000);
+    }
+
+    @ApplicationScoped
+    public static class Service {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger asyncCalls = new AtomicInteger();
+        private final AtomicInteger offHeapAsyncCalls = new AtomicInteger();
+        private volatile CompletableFuture<String> pending;
+
+        @Cached
+        public String compute(final String key) {
+            return key + "#" + calls.incrementAndGet();
+        }
+
+        @Cached
+        public String nothing() {
+            calls.incrementAndGet();
+            return null;
+        }
+
+        @Cached(name = "expiring", ttl = 100)
+        public String expiring(final String key) {
+            return new String(key);
+        }
+
+        @Cached(name = "offheap", offHeap = true)
+        public StringBuilder offHeap(final String key) {
+            return new StringBuilder(key);
+        }
+
+        @Cached(name = "async")
+        public CompletableFuture<String> async(final String key) {
+            asyncCalls.incrementAndGet();
+            if (pending == null || pending.isDone()) {
+                pending = new CompletableFuture<>();
+            }
+            return pending;
+        }
+
+        @Cached(name = "offheap-async", offHeap = true)
+        public CompletableFuture<String> offHeapAsync(final String key) {
+            return CompletableFuture.completedFuture(key + "#" + offHeapAsyncCalls.incrementAndGet());
+        }
+
+        public int getOffHeapAsyncCalls() {
+            return offHeapAsyncCalls.get();
+        }
+
+        public int getAsyncCalls() {
+            return asyncCalls.get();
+        }
+
+        public int getCalls() {
+            return calls.get();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.github.rmannibucau.mylang.cdi;
+
+import com.github.rmannibucau.mylang.cdi.api.MetadataExtension;
+import com.github.rmannibucau.mylang.future.api.Futureable;
+import com.github.rmannibucau.mylang.lock.api.Locked;
+import com.github.rmannibucau.mylang.lock.api.Throttled;
+import org.apache.openejb.junit.ApplicationComposer;
+import org.apache.openejb.testing.Classes;
+import org.apache.openejb.testing.Default;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.interceptor.InterceptorBinding;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@Default
+@Classes(cdi = true)
+@RunWith(ApplicationComposer.class)
+public class MetadataExtensionTest {
+    @Inject
+    private MetadataExtension extension;
+
+    @Inject
+    private Service service;
+
+    @Inject
+    private OtherService otherService;
+
+    @Test
+    public void discovery() throws Exception {
+        final Map<Method, MetadataExtension.InterceptedMethod> locked = extension.getMethods(Locked.class);
+        assertEquals(2, locked.size());
+        assertTrue(locked.containsKey(Service.class.getMethod("read")));
+        assertEquals(Locked.Operation.READ, locked.get(Service.class.getMethod("read")).getAnnotation(Locked.class).operation());
+        assertEquals(Locked.Operation.WRITE, locked.get(Service.class.getMethod("write")).getAnnotation(Locked.class).operation());
+
+        final Map<Method, MetadataExtension.InterceptedMethod> throttled = extension.getMethods(Throttled.class);
+        assertEquals(1, throttled.size());
+        assertEquals(500, throttled.get(OtherService.class.getMethod("throttled")).getAnnotation(Throttled.class).timeout());
+
+        final Map<Method, MetadataExtension.InterceptedMethod> futureable = extension.getMethods(Futureable.class);
+        assertEquals(1, futureable.size());
+        assertTrue(futureable.containsKey(OtherService.class.getMethod("async")));
+
+        final Map<Method, MetadataExtension.InterceptedMethod> custom = extension.getMethods(Custom.class);
+        assertEquals(1, custom.size());
+        assertTrue(custom.containsKey(OtherService.class.getMethod("throttled")));
+    }
+
+    @Test
+    public void precomputedInvocations() throws Exception {
+        assertEquals(1, service.read());
+        assertEquals(2, service.write());
+        assertEquals(3, otherService.throttled());
+        assertEquals("async", otherService.async().get(1, TimeUnit.MINUTES));
+    }
+
+    @Locked
+    @ApplicationScoped
+    public static class Service {
+        @Locked(operation = Locked.Operation.READ)
+        public int read() {
+            return 1;
+        }
+
+        public int write() {
+            return 2;
+        }
+    }
+
+    @ApplicationScoped
+    public static class OtherService {
+        @Custom
+        @Throttled(timeout = 500)
+        public int throttled() {
+            return 3;
+        }
+
+        @Futureable("metadata")
+        public CompletableFuture<String> async() {
+            return CompletableFuture.completedFuture("async");
+        }
+    }
+
+    @InterceptorBinding
+    @Retention(RUNTIME)
+    @Target({TYPE, METHOD})
+    public @interface Custom {
+    }
+}
@@ -0,0 +1,40 @@
+package com.github.rmannibucau.mylang.cdi;
+
+import com.github.rmannibucau.mylang.cdi.api.MethodTable;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class MethodTableTest {
+    @Test
+    public void identity() throws Exception {
+        final MethodTable<String> table = new MethodTable<>();
+        final Method method = Object.class.getMethod("toString");
+        assertNull(table.get(method));
+        assertEquals("toString", table.put(method, "toString"));
+        assertEquals("toString", table.get(method));
+
+        // equal but another instance, caller falls back on its equals() based lookup
+        final Method copy = Object.class.getMethod("toString");
+        assertEquals(method, copy);
+        if (copy != method) {
+            assertNull(table.get(copy));
+        }
+    }
+
+    @Test
+    public void resize() {
+        final MethodTable<Method> table = new MethodTable<>();
+        final Method[] methods = StringBuilder.class.getMethods();
+        for (final Method method : methods) {
+            table.put(method, method);
+        }
+        for (final Method method : methods) {
+            assertSame(method, table.get(method));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.rmannibucau.mylang.future;
+
+import com.github.rmannibucau.mylang.future.api.Batched;
+import org.apache.openejb.junit.ApplicationComposer;
+import org.apache.openejb.testing.Classes;
+import org.apache.openejb.testing.Default;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static java.util.stream.Collectors.toMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@Default
+@Classes(cdi = true)
+@RunWith(ApplicationComposer.class)
+public class BatchedTest {
+    @Inject
+    private Service service;
+
+    @Test
+    public void maxSize() throws Exception {
+        final int before = service.getBulkCalls();
+        final CompletionStage<String> first = service.load(1);
+        final CompletionStage<String> second = service.load(2);
+        final CompletionStage<String> duplicated = service.load(1);
+        final CompletionStage<String> third = service.load(3); // batch is full, executed without waiting the window
+        assertEquals("#1", first.toCompletableFuture().get(1, TimeUnit.MINUTES));
+        assertEquals("#2", second.toCompletableFuture().get(1, TimeUnit.MINUTES));
+        assertEquals("#1", duplicated.toCompletableFuture().get(1, TimeUnit.MINUTES));
+        assertEquals("#3", third.toCompletableFuture().get(1, TimeUnit.MINUTES));
+        assertEquals(before + 1, service.getBulkCalls());
+        assertEquals(3, service.getLastBulkSize());
+    }
+
+    @Test
+    public void window() throws Exception {
+        final int before = service.getBulkCalls();
+        final long start = System.nanoTime();
+        final CompletionStage<String> single = service.load(5);
+        assertEquals("#5", single.toCompletableFuture().get(1, TimeUnit.MINUTES));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(before + 1, service.getBulkCalls());
+        assertEquals(1, service.getLastBulkSize());
+    }
+
+    @Test
+    public void missingKey() throws Exception {
+        assertNull(service.load(-1).toCompletableFuture().get(1, TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void asyncBulkFailure() throws Exception {
+        try {
+            service.loadAsync(1).get(1, TimeUnit.MINUTES);
+            fail();
+        } catch (final ExecutionException e) {
+            assertEquals("failed", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void asyncBulkNotReturningAMap() throws Exception {
+        try {
+            service.loadInvalid(1).get(1, TimeUnit.MINUTES);
+            fail();
+        } catch (final ExecutionException e) {
+            assertTrue(IllegalStateException.class.isInstance(e.getCause()));
+        }
+    }
+
+    @ApplicationScoped
+    public static class Service {
+        private final AtomicInteger bulkCalls = new AtomicInteger();
+        private volatile int lastBulkSize;
+
+        @Batched(value = "batch", method = "loadAll", maxSize = 4, window = 100)
+        public CompletionStage<String> load(final int id) {
+            throw new UnsupportedOperationException("batched");
+        }
+
+        @Batched(value = "batch", method = "failAll", window = 1)
+        public CompletableFuture<String> loadAsync(final int id) {
+            throw new UnsupportedOperationException("batched");
+        }
+
+        @Batched(value = "batch", method = "invalidAll", window = 1)
+        public CompletableFuture<String> loadInvalid(final int id) {
+            throw new UnsupportedOperationException("batched");
+        }
+
+        Map<Integer, String> loadAll(final List<Integer> ids) {
+            bulkCalls.incrementAndGet();
+            lastBulkSize = ids.size();
+            return ids.stream().filter(i -> i > 0).collect(toMap(Function.identity(), i -> "#" + i));
+        }
+
+        CompletionStage<Map<Integer, String>> failAll(final List<Integer> ids) {
+            final CompletableFuture<Map<Integer, String>> result = new CompletableFuture<>();
+            result.completeExceptionally(new IllegalStateException("failed"));
+            return result;
+        }
+
+        CompletionStage<Object> invalidAll(final List<Integer> ids) {
+            return CompletableFuture.completedFuture(ids);
+        }
+
+        public int getBulkCalls() {
+            return bulkCalls.get();
+        }
+
+        public int getLastBulkSize() {
+            return lastBulkSize;
+        }
+    }
+}
@@ -1,18 +1,36 @@
 package com.github.rmannibucau.mylang.future;
 
 import com.github.rmannibucau.mylang.future.api.Futureable;
+import com.github.rmannibucau.mylang.lock.api.Locked;
+import com.github.rmannibucau.mylang.thread.api.IteratorPublisher;
+import com.github.rmannibucau.mylang.thread.api.ThreadPoolManager;
 import org.apache.openejb.junit.ApplicationComposer;
 import org.apache.openejb.testing.Classes;
 import org.apache.openejb.testing.Default;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Dependent;
+import javax.enterprise.event.Observes;
 import javax.inject.Inject;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 @Default
@@ -22,6 +40,9 @@ public class FutureableTest {
     @Inject
     private Service service;
 
+    @Inject
+    private LockedService lockedService;
+
     @Test
     public void future() {
         final CompletableFuture<String> future = service.thatSLong(1000);
@@ -43,8 +64,150 @@ public class FutureableTest {
         assertEquals(1000, count);
     }
 
+    @Test
+    public void compose() {
+        // pool has a single thread so blocking on the first stage would prevent the second call to run
+        final CompletableFuture<String> trigger = new CompletableFuture<>();
+        final CompletableFuture<String> first = service.composed(trigger);
+        final CompletableFuture<String> second = service.composed(CompletableFuture.completedFuture("second"));
+        try {
+            assertEquals("second", second.get(1, TimeUnit.MINUTES));
+            assertFalse(first.isDone());
+            trigger.complete("first");
+            assertEquals("first", first.get(1, TimeUnit.MINUTES));
+        } catch (final InterruptedException e) {
+            Thread.interrupted();
+            fail();
+        } catch (final ExecutionException | TimeoutException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final CompletableFuture<String> future = service.hang(interrupted);
+        try {
+            future.get(1, TimeUnit.MINUTES);
+            fail();
+        } catch (final ExecutionException e) {
+            assertTrue(TimeoutException.class.isInstance(e.getCause()));
+        }
+        assertTrue(interrupted.await(1, TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void deadlinePropagation() throws Exception {
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread holder = new Thread(() -> lockedService.hold(locked, release));
+        holder.start();
+        try {
+            assertTrue(locked.await(1, TimeUnit.MINUTES));
+            service.lockWithDeadline(lockedService);
+            // without the deadline the nested call would wait for the lock until the release
+            assertTrue(IllegalStateException.class.isInstance(service.getNestedError().get(1, TimeUnit.MINUTES)));
+        } finally {
+            release.countDown();
+            holder.join(TimeUnit.MINUTES.toMillis(1));
+        }
+    }
+
+    @Test
+    public void publisher() throws Exception {
+        final AtomicInteger read = new AtomicInteger();
+        final Publisher<Integer> publisher = service.stream(5, read);
+        assertEquals(0, read.get()); // nothing happens before the subscription
+
+        final BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+        final AtomicReference<Subscription> subscription = new AtomicReference<>();
+        final AtomicReference<Thread> emitter = new AtomicReference<>();
+        publisher.subscribe(new Subscriber<Integer>() {
+            @Override
+            public void onSubscribe(final Subscription s) {
+                subscription.set(s);
+                s.request(2);
+            }
+
+            @Override
+            public void onNext(final Integer item) {
+                emitter.set(Thread.currentThread());
+                signals.add(item);
+            }
+
+            @Override
+            public void onError(final Throwable throwable) {
+                signals.add(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                signals.add("complete");
+            }
+        });
+        assertEquals(0, signals.poll(1, TimeUnit.MINUTES));
+        assertEquals(1, signals.poll(1, TimeUnit.MINUTES));
+        assertTrue(emitter.get() != Thread.currentThread());
+        Thread.sleep(50);
+        assertEquals(2, read.get()); // no demand so the iterator is not read further
+
+        subscription.get().request(10);
+        assertEquals(2, signals.poll(1, TimeUnit.MINUTES));
+        assertEquals(3, signals.poll(1, TimeUnit.MINUTES));
+        assertEquals(4, signals.poll(1, TimeUnit.MINUTES));
+        assertEquals("complete", signals.poll(1, TimeUnit.MINUTES));
+        assertEquals(5, read.get());
+        assertTrue(emitter.get() != Thread.currentThread());
+    }
+
     @ApplicationScoped
     public static class Service {
+        private final CompletableFuture<Throwable> nestedError = new CompletableFuture<>();
+
+        @Inject
+        private ThreadPoolManager manager;
+
+        @Futureable("single")
+        public Publisher<Integer> stream(final int count, final AtomicInteger read) {
+            return new IteratorPublisher<>(manager.getOrCreatePool("single"), () -> new Iterator<Integer>() {
+                @Override
+                public boolean hasNext() {
+                    return read.get() < count;
+                }
+
+                @Override
+                public Integer next() {
+                    return read.getAndIncrement();
+                }
+            });
+        }
+
+        @Futureable(value = "default", timeout = 100)
+        public CompletableFuture<String> hang(final CountDownLatch interrupted) {
+            try {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                return CompletableFuture.completedFuture("not interrupted");
+            } catch (final InterruptedException e) {
+                interrupted.countDown();
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Futureable(value = "default", timeout = 200)
+        public CompletableFuture<String> lockWithDeadline(final LockedService lockedService) {
+            try {
+                lockedService.write();
+                nestedError.complete(null);
+            } catch (final RuntimeException re) {
+                nestedError.complete(re);
+            }
+            return CompletableFuture.completedFuture("done");
+        }
+
+        public CompletableFuture<Throwable> getNestedError() {
+            return nestedError;
+        }
+
         @Futureable("default")
         public CompletableFuture<String> thatSLong(final long sleep) {
             try {
@@ -55,5 +218,34 @@ public class FutureableTest {
                 throw new IllegalStateException(e);
             }
         }
+
+        @Futureable(value = "single", compose = true)
+        public CompletableFuture<String> composed(final CompletableFuture<String> result) {
+            return result;
+        }
+    }
+
+    @ApplicationScoped
+    @Locked(operation = Locked.Operation.WRITE)
+    public static class LockedService {
+        public void hold(final CountDownLatch locked, final CountDownLatch release) {
+            locked.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public void write() {
+            // no-op
+        }
+    }
+
+    @Dependent
+    public static class Registration {
+        public void register(@Observes final ThreadPoolManager mgr) {
+            mgr.register("single").withCore(1).withMax(1).add();
+        }
     }
 }
@@ -0,0 +1,123 @@
+package com.github.rmannibucau.mylang.lock;
+
+import com.github.rmannibucau.mylang.lock.api.Coalesced;
+import org.apache.openejb.junit.ApplicationComposer;
+import org.apache.openejb.testing.Classes;
+import org.apache.openejb.testing.Default;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@Default
+@Classes(cdi = true)
+@RunWith(ApplicationComposer.class)
+public class CoalescedTest {
+    @Inject
+    private Service service;
+
+    @Test
+    public void sharedResult() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Object> results = runConcurrently(() -> service.load("shared", release), release);
+        assertEquals(1, service.getCalls("shared"));
+        results.forEach(r -> assertEquals("shared#1", r));
+    }
+
+    @Test
+    public void sharedException() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Object> results = runConcurrently(() -> service.fail("failing", release), release);
+        assertEquals(1, service.getCalls("failing"));
+        results.forEach(r -> {
+            assertTrue(IllegalArgumentException.class.isInstance(r));
+            assertEquals("failing#1", IllegalArgumentException.class.cast(r).getMessage());
+        });
+    }
+
+    @Test
+    public void sequentialCallsAreNotShared() {
+        final CountDownLatch released = new CountDownLatch(0);
+        assertEquals("sequential#1", service.load("sequential", released));
+        assertEquals("sequential#2", service.load("sequential", released));
+    }
+
+    private List<Object> runConcurrently(final Supplier<Object> task, final CountDownLatch release) throws Exception {
+        final List<Object> results = new ArrayList<>();
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final Thread thread = new Thread(() -> {
+                Object result;
+                try {
+                    result = task.get();
+                } catch (final RuntimeException re) {
+                    result = re;
+                }
+                synchronized (results) {
+                    results.add(result);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        // all callers are blocked, either in the method or waiting for its result
+        final long end = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+        while (!threads.stream().allMatch(t -> t.getState() == Thread.State.WAITING)) {
+            if (System.currentTimeMillis() > end) {
+                fail("callers didn't block");
+            }
+            Thread.sleep(10);
+        }
+        release.countDown();
+        for (final Thread thread : threads) {
+            thread.join(TimeUnit.MINUTES.toMillis(1));
+        }
+        assertEquals(threads.size(), results.size());
+        return results;
+    }
+
+    @ApplicationScoped
+    public static class Service {
+        private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+
+        @Coalesced(keyParameters = 0)
+        public String load(final String key, final CountDownLatch release) {
+            final int call = calls.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+            await(release);
+            return key + "#" + call;
+        }
+
+        @Coalesced(keyParameters = 0)
+        public String fail(final String key, final CountDownLatch release) {
+            final int call = calls.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+            await(release);
+            throw new IllegalArgumentException(key + "#" + call);
+        }
+
+        public int getCalls(final String key) {
+            return calls.get(key).get();
+        }
+
+        private void await(final CountDownLatch release) {
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
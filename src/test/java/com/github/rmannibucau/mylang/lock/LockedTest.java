@@ -1,23 +1,48 @@
 package com.github.rmannibucau.mylang.lock;
 
+import com.github.rmannibucau.mylang.lock.api.DistributedLockFactory;
+import com.github.rmannibucau.mylang.lock.api.DistributedReadWriteLock;
+import com.github.rmannibucau.mylang.lock.api.InMemoryLockStore;
 import com.github.rmannibucau.mylang.lock.api.Locked;
+import com.github.rmannibucau.mylang.lock.api.StampedLockFactory;
+import com.github.rmannibucau.mylang.thread.api.ThreadPoolManager;
 import org.apache.openejb.junit.ApplicationComposer;
 import org.apache.openejb.testing.Classes;
 import org.apache.openejb.testing.Default;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import javax.annotation.Priority;
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Dependent;
+import javax.enterprise.event.Observes;
 import javax.inject.Inject;
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.Interceptor;
+import javax.interceptor.InterceptorBinding;
+import javax.interceptor.InvocationContext;
+import java.io.Serializable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
+import static com.github.rmannibucau.mylang.lock.api.Locked.Operation.OPTIMISTIC_READ;
 import static com.github.rmannibucau.mylang.lock.api.Locked.Operation.WRITE;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 @Default
@@ -27,6 +52,149 @@ public class LockedTest {
     @Inject
     private LockService service;
 
+    @Inject
+    private StripedService striped;
+
+    @Inject
+    private OptimisticService optimistic;
+
+    @Inject
+    private RetriedService retried;
+
+    @Inject
+    private ClusterService cluster;
+
+    @Inject
+    private AsyncService async;
+
+    @Inject
+    private MixedService mixed;
+
+    @Inject
+    private CustomFactoryAsyncService customFactoryAsync;
+
+    @Inject
+    private ThreadPoolManager manager;
+
+    @Test
+    public void async() throws Exception {
+        final CompletableFuture<String> firstWork = new CompletableFuture<>();
+        final CompletableFuture<String> secondWork = new CompletableFuture<>();
+        final CompletableFuture<String> first = async.write(firstWork);
+        final CompletableFuture<String> second = async.write(secondWork); // queued, the call doesn't block
+        assertEquals(1, async.getCalls());
+        assertFalse(second.isDone());
+
+        // held until the stage completes
+        try {
+            async.timed().get(1, TimeUnit.MINUTES);
+            fail();
+        } catch (final ExecutionException ee) {
+            assertTrue(IllegalStateException.class.isInstance(ee.getCause()));
+        }
+
+        firstWork.complete("first");
+        assertEquals("first", first.get(1, TimeUnit.MINUTES));
+        final long end = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+        while (async.getCalls() != 2) { // granted to the queued call which runs in the async pool
+            if (System.currentTimeMillis() > end) {
+                fail("queued call didn't run");
+            }
+            Thread.sleep(10);
+        }
+        assertTrue(async.getLastCaller().getName().startsWith("locked-"));
+        assertFalse(second.isDone());
+        secondWork.complete("second");
+        assertEquals("second", second.get(1, TimeUnit.MINUTES));
+        assertEquals("timed", async.timed().get(1, TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void asyncMixedWithBlockingMethods() throws Exception {
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread holder = new Thread(() -> mixed.hold(locked, release));
+        holder.start();
+        try {
+            assertTrue(locked.await(1, TimeUnit.MINUTES));
+            try { // the blocking lock of the bean is shared so the asynchronous method is excluded
+                mixed.async();
+                fail();
+            } catch (final IllegalStateException ise) {
+                // ok
+            }
+        } finally {
+            release.countDown();
+            holder.join(TimeUnit.MINUTES.toMillis(1));
+        }
+        assertEquals("mixed", mixed.async().get(1, TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void asyncWithCustomFactory() throws Exception {
+        assertEquals("custom", customFactoryAsync.async().get(1, TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void distributed() throws InterruptedException {
+        final InMemoryLockStore store = ClusterLocks.STORE;
+        final String name = ClusterService.class.getName();
+
+        cluster.write("a");
+        cluster.write("b");
+        assertEquals(2, store.getLastToken(name)); // one lease per call, released after
+        cluster.nestedRead(); // a single read lease for the outer and inner calls
+        assertEquals(3, store.getLastToken(name));
+
+        // another node writes
+        final DistributedReadWriteLock otherNode = new DistributedReadWriteLock(store, name, "other", 1, TimeUnit.MINUTES, null, false);
+        assertTrue(otherNode.writeLock().tryLock());
+        assertEquals(4, otherNode.getFencingToken());
+        try {
+            cluster.write("c");
+            fail();
+        } catch (final IllegalStateException ise) {
+            // ok, held by the other node
+        } finally {
+            otherNode.writeLock().unlock();
+        }
+
+        // readers of both nodes share the lock
+        assertTrue(otherNode.readLock().tryLock());
+        try {
+            assertEquals("b", cluster.nestedRead());
+        } finally {
+            otherNode.readLock().unlock();
+        }
+        cluster.write("d");
+        assertEquals("d", cluster.nestedRead());
+    }
+
+    @Test
+    public void distributedLostLease() throws InterruptedException {
+        final InMemoryLockStore store = new InMemoryLockStore() {
+            @Override
+            public synchronized boolean renew(final String name, final String owner, final long token, final long leaseNanos) {
+                return false; // expired during a pause
+            }
+        };
+        final DistributedReadWriteLock lock = new DistributedReadWriteLock(
+            store, "lost", "node", 30, TimeUnit.MILLISECONDS, manager.getTimer(), false);
+        assertTrue(lock.writeLock().tryLock());
+        try {
+            assertEquals(1, lock.getFencingToken());
+            final long end = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+            while (lock.getFencingToken() != 0) { // the stale token is not given to the resource anymore
+                if (System.currentTimeMillis() > end) {
+                    fail("failed renewal didn't clear the fencing token");
+                }
+                Thread.sleep(10);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
     @Test
     public void simpleNotConcurrent() {
         final CountDownLatch synchro = new CountDownLatch(1);
@@ -107,6 +275,198 @@ public class LockedTest {
         assertEquals("value", service.read("test"));
     }
 
+    @Test
+    public void striped() {
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread holder = new Thread() {
+            @Override
+            public void run() {
+                striped.hold("a", locked, release);
+            }
+        };
+        holder.start();
+        try {
+            assertTrue(locked.await(1, TimeUnit.MINUTES));
+            striped.write("b", "other stripe"); // not blocked by "a"
+            try {
+                striped.write("a", "same stripe");
+                fail();
+            } catch (final IllegalStateException ise) {
+                // ok, "a" is still locked
+            }
+        } catch (final InterruptedException e) {
+            Thread.interrupted();
+            fail();
+        } finally {
+            release.countDown();
+        }
+        try {
+            holder.join(TimeUnit.MINUTES.toMillis(1));
+        } catch (final InterruptedException e) {
+            Thread.interrupted();
+            fail();
+        }
+        assertEquals("other stripe", striped.get("b"));
+
+        striped.writeFewStripes("c", "fewer stripes"); // other stripe count of the same bean
+        assertEquals("fewer stripes", striped.get("c"));
+    }
+
+    @Test
+    public void optimisticRead() {
+        optimistic.write("value");
+        assertEquals("value", optimistic.read());
+
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread holder = new Thread() {
+            @Override
+            public void run() {
+                optimistic.hold(locked, release);
+            }
+        };
+        holder.start();
+        try {
+            assertTrue(locked.await(1, TimeUnit.MINUTES));
+            try {
+                optimistic.read();
+                fail();
+            } catch (final IllegalStateException ise) {
+                // ok, a write is in progress so the read falls back on the read lock and times out
+            }
+        } catch (final InterruptedException e) {
+            Thread.interrupted();
+            fail();
+        } finally {
+            release.countDown();
+        }
+        try {
+            holder.join(TimeUnit.MINUTES.toMillis(1));
+        } catch (final InterruptedException e) {
+            Thread.interrupted();
+            fail();
+        }
+        assertEquals("value", optimistic.read());
+    }
+
+    @Test
+    public void optimisticReadRetry() {
+        retried.setOnFirstRead(() -> retried.write("written")); // invalidates the optimistic stamp
+        assertEquals("written", retried.read());
+        assertEquals(2, retried.getReads()); // optimistic execution + retry under the read lock
+        assertEquals(2, retried.getIntercepted()); // the retry goes through the rest of the chain again, once
+    }
+
+    @ApplicationScoped
+    @Locked(factory = StampedLockFactory.class)
+    public static class OptimisticService {
+        private volatile String value;
+
+        @Locked(factory = StampedLockFactory.class, operation = OPTIMISTIC_READ, timeout = 100)
+        public String read() {
+            return value;
+        }
+
+        @Locked(factory = StampedLockFactory.class, operation = WRITE)
+        public void write(final String v) {
+            value = v;
+        }
+
+        @Locked(factory = StampedLockFactory.class, operation = WRITE)
+        public void hold(final CountDownLatch locked, final CountDownLatch release) {
+            locked.countDown();
+            try {
+                release.await(1, TimeUnit.MINUTES);
+            } catch (final InterruptedException e) {
+                Thread.interrupted();
+                fail();
+            }
+        }
+    }
+
+    @ApplicationScoped
+    public static class RetriedService {
+        private final AtomicInteger reads = new AtomicInteger();
+        private final AtomicInteger intercepted = new AtomicInteger();
+        private volatile Runnable onFirstRead;
+        private volatile String value;
+
+        @Counted
+        @Locked(factory = StampedLockFactory.class, operation = OPTIMISTIC_READ, timeout = 100)
+        public String read() {
+            if (reads.incrementAndGet() == 1) {
+                onFirstRead.run();
+            }
+            return value;
+        }
+
+        @Locked(factory = StampedLockFactory.class, operation = WRITE)
+        public void write(final String v) {
+            value = v;
+        }
+
+        public void setOnFirstRead(final Runnable onFirstRead) {
+            this.onFirstRead = onFirstRead;
+        }
+
+        public int getReads() {
+            return reads.get();
+        }
+
+        public int getIntercepted() {
+            return intercepted.get();
+        }
+    }
+
+    @InterceptorBinding
+    @Retention(RUNTIME)
+    @Target({TYPE, METHOD})
+    public @interface Counted {
+    }
+
+    // runs after @Locked so it sees each execution of the method
+    @Counted
+    @Interceptor
+    @Priority(Interceptor.Priority.APPLICATION)
+    public static class CountingInterceptor implements Serializable {
+        @AroundInvoke
+        public Object count(final InvocationContext context) throws Exception {
+            RetriedService.class.cast(context.getTarget()).intercepted.incrementAndGet();
+            return context.proceed();
+        }
+    }
+
+    @ApplicationScoped
+    public static class StripedService {
+        private final Map<String, String> entries = new ConcurrentHashMap<>();
+
+        public String get(final String k) {
+            return entries.get(k);
+        }
+
+        @Locked(timeout = 100, operation = WRITE, stripeParameter = 0)
+        public void write(final String k, final String v) {
+            entries.put(k, v);
+        }
+
+        @Locked(timeout = 100, operation = WRITE, stripeParameter = 0, stripes = 4)
+        public void writeFewStripes(final String k, final String v) {
+            entries.put(k, v);
+        }
+
+        @Locked(operation = WRITE, stripeParameter = 0)
+        public void hold(final String k, final CountDownLatch locked, final CountDownLatch release) {
+            locked.countDown();
+            try {
+                release.await(1, TimeUnit.MINUTES);
+            } catch (final InterruptedException e) {
+                Thread.interrupted();
+                fail();
+            }
+        }
+    }
+
     @ApplicationScoped
     public static class LockService {
         private final Map<String, String> entries = new HashMap<>();
@@ -131,4 +491,97 @@ public class LockedTest {
             }
         }
     }
+
+    @ApplicationScoped
+    public static class MixedService {
+        @Locked(operation = WRITE)
+        public void hold(final CountDownLatch locked, final CountDownLatch release) {
+            locked.countDown();
+            try {
+                release.await(1, TimeUnit.MINUTES);
+            } catch (final InterruptedException e) {
+                Thread.interrupted();
+                fail();
+            }
+        }
+
+        @Locked(operation = WRITE, timeout = 100)
+        public CompletableFuture<String> async() {
+            return CompletableFuture.completedFuture("mixed");
+        }
+    }
+
+    @ApplicationScoped
+    @Locked(factory = StampedLockFactory.class, operation = WRITE)
+    public static class CustomFactoryAsyncService {
+        public CompletableFuture<String> async() {
+            return CompletableFuture.completedFuture("custom");
+        }
+    }
+
+    @ApplicationScoped
+    public static class AsyncService {
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile Thread lastCaller;
+
+        @Locked(operation = WRITE)
+        public CompletableFuture<String> write(final CompletableFuture<String> work) {
+            lastCaller = Thread.currentThread();
+            calls.incrementAndGet();
+            return work;
+        }
+
+        @Locked(operation = WRITE, timeout = 100)
+        public CompletableFuture<String> timed() {
+            return CompletableFuture.completedFuture("timed");
+        }
+
+        public int getCalls() {
+            return calls.get();
+        }
+
+        public Thread getLastCaller() {
+            return lastCaller;
+        }
+    }
+
+    @Dependent
+    public static class Registration {
+        public void register(@Observes final ThreadPoolManager mgr) {
+            mgr.register("locked").withCore(1).withMax(1)
+                .withThreadFactory(task -> new Thread(task, "locked-" + System.identityHashCode(task))).add();
+        }
+    }
+
+    @ApplicationScoped
+    public static class ClusterLocks extends DistributedLockFactory {
+        private static final InMemoryLockStore STORE = new InMemoryLockStore();
+
+        public ClusterLocks() {
+            super(STORE, 1, TimeUnit.MINUTES);
+        }
+    }
+
+    @ApplicationScoped
+    public static class ClusterService {
+        @Inject
+        private ClusterService self;
+
+        private volatile String value;
+
+        @Locked(factory = ClusterLocks.class, operation = WRITE, timeout = 100)
+        public void write(final String value) {
+            this.value = value;
+        }
+
+        @Locked(factory = ClusterLocks.class, timeout = 100)
+        public String nestedRead() {
+            return self.read();
+        }
+
+        @Locked(factory = ClusterLocks.class, timeout = 100)
+        public String read() {
+            return value;
+        }
+    }
 }
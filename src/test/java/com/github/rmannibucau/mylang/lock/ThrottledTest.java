@@ -1,5 +1,11 @@
 package com.github.rmannibucau.mylang.lock;
 
+import com.github.rmannibucau.mylang.lock.api.AdaptiveSemaphore;
+import com.github.rmannibucau.mylang.lock.api.DistributedSemaphoreFactory;
+import com.github.rmannibucau.mylang.lock.api.InMemoryPermitCoordinator;
+import com.github.rmannibucau.mylang.lock.api.PermitQueue;
+import com.github.rmannibucau.mylang.lock.api.PriorityResolver;
+import com.github.rmannibucau.mylang.lock.api.SemaphoreFactory;
 import com.github.rmannibucau.mylang.lock.api.Throttled;
 import com.github.rmannibucau.mylang.lock.api.Throttling;
 import org.apache.openejb.junit.ApplicationComposer;
@@ -9,23 +15,31 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.spi.AnnotatedMethod;
 import javax.inject.Inject;
+import javax.interceptor.InvocationContext;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Stream;
 
 import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 @Default
@@ -38,6 +52,30 @@ public class ThrottledTest {
     @Inject
     private Service2 service2;
 
+    @Inject
+    private RateService rateService;
+
+    @Inject
+    private AdaptiveService adaptiveService;
+
+    @Inject
+    private AdaptiveFactory adaptiveFactory;
+
+    @Inject
+    private DefaultAdaptiveService defaultAdaptiveService;
+
+    @Inject
+    private SheddingService sheddingService;
+
+    @Inject
+    private PriorityService priorityService;
+
+    @Inject
+    private ClusterService clusterService;
+
+    @Inject
+    private OtherNodeFactory otherNodeFactory;
+
     @Test
     public void permits() {
         {// failling case now
@@ -109,6 +147,201 @@ public class ThrottledTest {
         }
     }
 
+    @Test
+    public void rate() {
+        rateService.call();
+        rateService.call();
+        try {
+            rateService.call();
+            fail();
+        } catch (final IllegalStateException ise) {
+            // ok, burst consumed and next token is in 1s
+        }
+    }
+
+    @Test
+    public void adaptive() {
+        for (int i = 0; i < 10; i++) {
+            adaptiveService.call();
+        }
+        assertEquals(4, adaptiveFactory.getSemaphore().getLimit());
+    }
+
+    @Test
+    public void defaultAdaptive() throws InterruptedException {
+        // the first sample is the lowest latency and the single permit is in use so the limit grows to 2
+        defaultAdaptiveService.call();
+
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread holder = new Thread(() -> defaultAdaptiveService.hold(entered, release));
+        holder.start();
+        try {
+            assertTrue(entered.await(1, TimeUnit.MINUTES));
+            defaultAdaptiveService.call(); // a plain semaphore with a single permit would time out
+        } finally {
+            release.countDown();
+            holder.join(TimeUnit.MINUTES.toMillis(1));
+        }
+    }
+
+    @Test
+    public void shedding() throws InterruptedException {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread holder = new Thread(() -> sheddingService.hold(entered, release));
+        holder.start();
+        entered.await(1, TimeUnit.MINUTES);
+
+        final Thread waiter = new Thread(sheddingService::call);
+        waiter.start();
+        awaitWaiting(waiter); // the single waiting slot is taken
+
+        final long start = System.nanoTime();
+        try {
+            sheddingService.call();
+            fail();
+        } catch (final IllegalStateException ise) {
+            assertTrue(ise.getMessage().contains("call rejected"));
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+        release.countDown();
+        waitForThreads(new Thread[]{holder, waiter});
+        assertEquals(1, sheddingService.getCalls());
+    }
+
+    @Test
+    public void priorities() throws InterruptedException {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread holder = new Thread(() -> priorityService.hold(entered, release));
+        holder.start();
+        entered.await(1, TimeUnit.MINUTES);
+
+        final Thread low = new Thread(() -> priorityService.call("low"));
+        low.start();
+        awaitWaiting(low);
+        final Thread high = new Thread(() -> priorityService.call("high"));
+        high.start();
+        awaitWaiting(high);
+
+        release.countDown();
+        waitForThreads(new Thread[]{holder, low, high});
+        assertEquals(asList("high", "low"), priorityService.getCalled());
+    }
+
+    @Test
+    public void distributed() throws InterruptedException {
+        clusterService.call();
+        assertEquals(1, ClusterFactory.COORDINATOR.getLeased("cluster")); // kept locally for next calls
+
+        // another node takes the other permit of the cluster
+        final Semaphore otherNode = otherNodeFactory.newSemaphore(null, "cluster", false, 2);
+        assertTrue(otherNode.tryAcquire());
+        assertEquals(2, ClusterFactory.COORDINATOR.getLeased("cluster"));
+
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread holder = new Thread(() -> clusterService.hold(entered, release));
+        holder.start();
+        entered.await(1, TimeUnit.MINUTES);
+        try {
+            try {
+                clusterService.call();
+                fail();
+            } catch (final IllegalStateException ise) {
+                // ok, the local permit is held and the other one is on the other node
+            }
+
+            otherNode.release(); // kept by the other node until it is idle
+            final long end = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+            while (true) {
+                try {
+                    clusterService.call(); // leases the permit given back
+                    break;
+                } catch (final IllegalStateException ise) {
+                    if (System.currentTimeMillis() > end) {
+                        fail("idle node didn't give back its permit");
+                    }
+                    Thread.sleep(10);
+                }
+            }
+        } finally {
+            release.countDown();
+            holder.join();
+            otherNodeFactory.destroy();
+        }
+        assertEquals(2, clusterService.getCalls());
+    }
+
+    @Test
+    public void lifo() throws InterruptedException {
+        final PermitQueue queue = new PermitQueue(1, -1, true);
+        assertEquals(PermitQueue.Result.ACQUIRED, queue.acquire(1, -1));
+
+        final List<String> served = new CopyOnWriteArrayList<>();
+        final Thread first = new Thread(() -> acquireAndRelease(queue, 0, "first", served));
+        first.start();
+        awaitWaiting(first);
+        final Thread second = new Thread(() -> acquireAndRelease(queue, 0, "second", served));
+        second.start();
+        awaitWaiting(second);
+
+        queue.release(1);
+        waitForThreads(new Thread[]{first, second});
+        assertEquals(asList("second", "first"), served);
+    }
+
+    @Test
+    public void priorityEviction() throws InterruptedException {
+        final PermitQueue queue = new PermitQueue(1, 1, false, 2);
+        assertEquals(PermitQueue.Result.ACQUIRED, queue.acquire(1, -1));
+
+        final List<String> served = new CopyOnWriteArrayList<>();
+        final Thread low = new Thread(() -> acquireAndRelease(queue, 0, "low", served));
+        low.start();
+        awaitWaiting(low);
+        final Thread high = new Thread(() -> acquireAndRelease(queue, 1, "high", served));
+        high.start(); // the queue is full, the low priority waiter is evicted
+        low.join(TimeUnit.MINUTES.toMillis(1));
+        assertEquals(singletonList("low:REJECTED"), served);
+        awaitWaiting(high);
+
+        // nothing to evict for an equal or lower priority
+        assertEquals(PermitQueue.Result.REJECTED, queue.acquire(1, 1, -1));
+        assertEquals(PermitQueue.Result.REJECTED, queue.acquire(1, 0, -1));
+
+        queue.release(1);
+        waitForThreads(new Thread[]{high});
+        assertEquals(asList("low:REJECTED", "high"), served);
+    }
+
+    private void acquireAndRelease(final PermitQueue queue, final int priority, final String name, final List<String> served) {
+        try {
+            final PermitQueue.Result result = queue.acquire(1, priority, -1);
+            if (result != PermitQueue.Result.ACQUIRED) {
+                served.add(name + ':' + result);
+                return;
+            }
+            served.add(name);
+            queue.release(1);
+        } catch (final InterruptedException e) {
+            Thread.interrupted();
+            fail();
+        }
+    }
+
+    private void awaitWaiting(final Thread thread) throws InterruptedException {
+        final long end = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+        while (thread.getState() != Thread.State.WAITING) {
+            if (System.currentTimeMillis() > end) {
+                fail(thread.getName() + " didn't wait");
+            }
+            Thread.sleep(10);
+        }
+    }
+
     private void waitForThreads(final Thread[] concurrents) {
         Stream.of(concurrents).forEach(t -> {
             try {
@@ -256,4 +489,165 @@ public class ThrottledTest {
             return called;
         }
     }
+
+    @ApplicationScoped
+    @Throttling(rate = 2, period = 2, periodUnit = TimeUnit.SECONDS)
+    public static class RateService {
+        @Throttled(timeout = 100)
+        public void call() {
+            // no-op
+        }
+    }
+
+    @ApplicationScoped
+    public static class AdaptiveFactory implements SemaphoreFactory {
+        private final AdaptiveSemaphore semaphore = new AdaptiveSemaphore(1, 1, 4, false) {
+            @Override
+            public void onSample(final long latency) { // stable latency so the limit grows
+                super.onSample(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+        };
+
+        @Override
+        public Semaphore newSemaphore(final AnnotatedMethod<?> method, final String name, final boolean fair, final int permits) {
+            return semaphore;
+        }
+
+        public AdaptiveSemaphore getSemaphore() {
+            return semaphore;
+        }
+    }
+
+    @ApplicationScoped
+    @Throttling(factory = AdaptiveFactory.class)
+    public static class AdaptiveService {
+        @Throttled
+        public void call() {
+            // no-op, the factory semaphore uses a constant latency
+        }
+    }
+
+    @ApplicationScoped
+    @Throttling(name = "adaptive", adaptive = true, maxPermits = 4)
+    public static class DefaultAdaptiveService {
+        @Throttled(timeout = 100)
+        public void call() {
+            // no-op
+        }
+
+        @Throttled
+        public void hold(final CountDownLatch entered, final CountDownLatch release) {
+            entered.countDown();
+            try {
+                release.await(1, TimeUnit.MINUTES);
+            } catch (final InterruptedException e) {
+                Thread.interrupted();
+                fail();
+            }
+        }
+    }
+
+    @ApplicationScoped
+    @Throttling(name = "shedding", maxWaiters = 1)
+    public static class SheddingService {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Throttled
+        public void hold(final CountDownLatch entered, final CountDownLatch release) {
+            entered.countDown();
+            try {
+                release.await(1, TimeUnit.MINUTES);
+            } catch (final InterruptedException e) {
+                Thread.interrupted();
+            }
+        }
+
+        @Throttled
+        public void call() {
+            calls.incrementAndGet();
+        }
+
+        public int getCalls() {
+            return calls.get();
+        }
+    }
+
+    @ApplicationScoped
+    public static class KindPriorityResolver implements PriorityResolver {
+        @Override
+        public int priority(final InvocationContext context) {
+            return "high".equals(context.getParameters()[0]) ? 1 : 0;
+        }
+    }
+
+    @ApplicationScoped
+    @Throttling(name = "priority", priorities = 2)
+    public static class PriorityService {
+        private final Collection<String> called = new ArrayList<>();
+
+        @Throttled(priority = 1)
+        public void hold(final CountDownLatch entered, final CountDownLatch release) {
+            entered.countDown();
+            try {
+                release.await(1, TimeUnit.MINUTES);
+            } catch (final InterruptedException e) {
+                Thread.interrupted();
+            }
+        }
+
+        @Throttled(priorityResolver = KindPriorityResolver.class)
+        public void call(final String kind) {
+            synchronized (called) {
+                called.add(kind);
+            }
+        }
+
+        public Collection<String> getCalled() {
+            synchronized (called) {
+                return new ArrayList<>(called);
+            }
+        }
+    }
+
+    @ApplicationScoped
+    public static class ClusterFactory extends DistributedSemaphoreFactory {
+        private static final InMemoryPermitCoordinator COORDINATOR = new InMemoryPermitCoordinator();
+
+        public ClusterFactory() {
+            super(COORDINATOR, 1);
+        }
+    }
+
+    // another node of the cluster, it gives back its permits quickly when idle
+    @ApplicationScoped
+    public static class OtherNodeFactory extends DistributedSemaphoreFactory {
+        public OtherNodeFactory() {
+            super(ClusterFactory.COORDINATOR, 1, 50, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @ApplicationScoped
+    @Throttling(name = "cluster", permits = 2, factory = ClusterFactory.class)
+    public static class ClusterService {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Throttled
+        public void hold(final CountDownLatch entered, final CountDownLatch release) {
+            entered.countDown();
+            try {
+                release.await(1, TimeUnit.MINUTES);
+            } catch (final InterruptedException e) {
+                Thread.interrupted();
+            }
+        }
+
+        @Throttled(timeout = 100)
+        public void call() {
+            calls.incrementAndGet();
+        }
+
+        public int getCalls() {
+            return calls.get();
+        }
+    }
 }
@@ -0,0 +1,90 @@
+package com.github.rmannibucau.mylang.metrics;
+
+import com.github.rmannibucau.mylang.lock.api.Locked;
+import com.github.rmannibucau.mylang.lock.api.Throttled;
+import com.github.rmannibucau.mylang.metrics.api.ContentionMetrics;
+import com.github.rmannibucau.mylang.metrics.api.MetricsRegistry;
+import com.github.rmannibucau.mylang.metrics.api.PoolMetrics;
+import com.github.rmannibucau.mylang.thread.api.ThreadPoolManager;
+import org.apache.openejb.junit.ApplicationComposer;
+import org.apache.openejb.testing.Classes;
+import org.apache.openejb.testing.Default;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@Default
+@Classes(cdi = true)
+@RunWith(ApplicationComposer.class)
+public class MetricsTest {
+    @Inject
+    private MetricsRegistry registry;
+
+    @Inject
+    private ThreadPoolManager manager;
+
+    @Inject
+    private Service service;
+
+    @Test
+    public void lockAndThrottle() throws Exception {
+        service.locked();
+        service.locked();
+        service.throttled();
+
+        final ContentionMetrics lock = registry.getLocks().get(Service.class.getName());
+        assertNotNull(lock);
+        assertEquals(2, lock.getAcquisitionCount());
+        assertEquals(0, lock.getTimeoutCount());
+        assertTrue(lock.getHoldTimeMax() > 0);
+
+        final ContentionMetrics throttle = registry.getThrottles().get(Service.class.getName());
+        assertNotNull(throttle);
+        assertEquals(1, throttle.getAcquisitionCount());
+
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(
+            "com.github.rmannibucau.mylang:type=lock,name=" + ObjectName.quote(Service.class.getName()))));
+    }
+
+    @Test
+    public void pool() {
+        try {
+            manager.getOrCreatePool("metrics").submit(() -> "ok").get();
+        } catch (final InterruptedException e) {
+            Thread.interrupted();
+            fail();
+        } catch (final ExecutionException e) {
+            fail(e.getMessage());
+        }
+        final PoolMetrics pool = registry.getPools().get("metrics");
+        assertNotNull(pool);
+        assertEquals(0, pool.getRejectedTaskCount());
+    }
+
+    @ApplicationScoped
+    public static class Service {
+        @Locked
+        public void locked() {
+            try {
+                Thread.sleep(1);
+            } catch (final InterruptedException e) {
+                Thread.interrupted();
+            }
+        }
+
+        @Throttled
+        public void throttled() {
+            // no-op
+        }
+    }
+}
@@ -1,7 +1,13 @@
 package com.github.rmannibucau.mylang.thread;
 
+import com.github.rmannibucau.mylang.metrics.api.MetricsRegistry;
+import com.github.rmannibucau.mylang.metrics.api.PoolMetrics;
+import com.github.rmannibucau.mylang.thread.api.BackPressure;
+import com.github.rmannibucau.mylang.thread.api.BoundedWorkQueue;
+import com.github.rmannibucau.mylang.thread.api.FanOut;
 import com.github.rmannibucau.mylang.thread.api.ThreadPool;
 import com.github.rmannibucau.mylang.thread.api.ThreadPoolManager;
+import com.github.rmannibucau.mylang.thread.api.TracedThreadPoolExecutor;
 import org.apache.openejb.junit.ApplicationComposer;
 import org.apache.openejb.testing.Classes;
 import org.apache.openejb.testing.Default;
@@ -11,13 +17,25 @@ import org.junit.runner.RunWith;
 import javax.enterprise.context.Dependent;
 import javax.enterprise.event.Observes;
 import javax.inject.Inject;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
 @Default
 @Classes(cdi = true)
@@ -27,6 +45,16 @@ public class ThreadPoolTest {
     @ThreadPool("test")
     private ExecutorService executorService;
 
+    @Inject
+    @ThreadPool("cpu")
+    private ExecutorService workStealing;
+
+    @Inject
+    private ThreadPoolManager manager;
+
+    @Inject
+    private MetricsRegistry metrics;
+
     @Test
     public void ensurePoolIsCreatedAndUsable() throws ExecutionException {
         assertNotNull(executorService);
@@ -40,10 +68,328 @@ public class ThreadPoolTest {
         assertEquals(4, ThreadPoolExecutor.class.cast(executorService).getMaximumPoolSize());
     }
 
+    @Test
+    public void backPressure() throws ExecutionException {
+        final ExecutorService pool = manager.getOrCreatePool("bounded");
+        assertTrue(ThreadPoolExecutor.class.cast(pool).getQueue() instanceof BoundedWorkQueue);
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final Runnable blocking = () -> {
+            try {
+                release.await(1, TimeUnit.MINUTES);
+            } catch (final InterruptedException e) {
+                Thread.interrupted();
+            }
+        };
+        try {
+            final Future<?> running = pool.submit(blocking);
+            final Future<?> queued1 = pool.submit(blocking);
+            final Future<?> queued2 = pool.submit(blocking);
+            // the thread and the queue are busy so the caller runs the task
+            assertEquals(Thread.currentThread().getName(), pool.submit(() -> Thread.currentThread().getName()).get());
+            release.countDown();
+            running.get();
+            queued1.get();
+            queued2.get();
+        } catch (final InterruptedException e) {
+            Thread.interrupted();
+            fail();
+        }
+    }
+
+    @Test
+    public void unregisteredPoolIsUnbounded() {
+        final ThreadPoolExecutor pool = ThreadPoolExecutor.class.cast(manager.getOrCreatePool("not-registered"));
+        assertEquals(Integer.MAX_VALUE, pool.getQueue().remainingCapacity());
+    }
+
+    @Test
+    public void dropOldest() throws Exception {
+        final ExecutorService pool = manager.getOrCreatePool("dropping");
+        final CountDownLatch release = new CountDownLatch(1);
+        final Runnable blocking = () -> {
+            try {
+                release.await(1, TimeUnit.MINUTES);
+            } catch (final InterruptedException e) {
+                Thread.interrupted();
+            }
+        };
+        pool.execute(blocking);
+        final Future<String> oldest = pool.submit(() -> "oldest");
+        final Future<String> queued = pool.submit(() -> "queued");
+        final Future<String> newest = pool.submit(() -> "newest"); // queue full, the oldest is dropped
+        assertTrue(oldest.isCancelled());
+        release.countDown();
+        assertEquals("queued", queued.get(1, TimeUnit.MINUTES));
+        assertEquals("newest", newest.get(1, TimeUnit.MINUTES));
+
+        // plain tasks can't be cancelled so the new task is rejected instead of leaving one pending
+        final CountDownLatch secondRelease = new CountDownLatch(1);
+        final CountDownLatch ran = new CountDownLatch(2);
+        pool.execute(() -> {
+            try {
+                secondRelease.await(1, TimeUnit.MINUTES);
+            } catch (final InterruptedException e) {
+                Thread.interrupted();
+            }
+        });
+        pool.execute(ran::countDown);
+        pool.execute(ran::countDown);
+        try {
+            pool.execute(ran::countDown);
+            fail();
+        } catch (final RejectedExecutionException ree) {
+            // ok
+        } finally {
+            secondRelease.countDown();
+        }
+        assertTrue(ran.await(1, TimeUnit.MINUTES));
+
+        // a cancelled supplyAsync() task would never complete its CompletableFuture so it is not dropped
+        final CountDownLatch thirdRelease = new CountDownLatch(1);
+        pool.execute(() -> {
+            try {
+                thirdRelease.await(1, TimeUnit.MINUTES);
+            } catch (final InterruptedException e) {
+                Thread.interrupted();
+            }
+        });
+        final CompletableFuture<String> firstAsync = CompletableFuture.supplyAsync(() -> "first", pool);
+        final CompletableFuture<String> secondAsync = CompletableFuture.supplyAsync(() -> "second", pool);
+        try {
+            CompletableFuture.supplyAsync(() -> "third", pool);
+            fail();
+        } catch (final RejectedExecutionException ree) {
+            // ok
+        } finally {
+            thirdRelease.countDown();
+        }
+        assertEquals("first", firstAsync.get(1, TimeUnit.MINUTES));
+        assertEquals("second", secondAsync.get(1, TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void block() throws Exception {
+        final ExecutorService pool = manager.getOrCreatePool("blocking");
+        final CountDownLatch release = new CountDownLatch(1);
+        pool.execute(() -> {
+            try {
+                release.await(1, TimeUnit.MINUTES);
+            } catch (final InterruptedException e) {
+                Thread.interrupted();
+            }
+        });
+        final CountDownLatch ran = new CountDownLatch(3);
+        pool.execute(ran::countDown);
+        pool.execute(ran::countDown);
+        final long start = System.nanoTime();
+        try {
+            pool.execute(ran::countDown);
+            fail();
+        } catch (final RejectedExecutionException ree) { // the queue stayed full during the timeout
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+        }
+
+        final Thread releaser = new Thread(release::countDown);
+        releaser.start();
+        pool.execute(ran::countDown); // waits for room in the queue
+        releaser.join(TimeUnit.MINUTES.toMillis(1));
+        assertTrue(ran.await(1, TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void removeQueuedTask() throws InterruptedException {
+        final ThreadPoolExecutor pool = ThreadPoolExecutor.class.cast(manager.getOrCreatePool("bounded"));
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicBoolean removedRan = new AtomicBoolean();
+        pool.execute(() -> {
+            try {
+                release.await(1, TimeUnit.MINUTES);
+            } catch (final InterruptedException e) {
+                Thread.interrupted();
+            }
+        });
+        final Runnable removed = () -> removedRan.set(true);
+        pool.execute(removed);
+        pool.execute(done::countDown);
+        assertTrue(pool.remove(removed));
+        assertFalse(pool.remove(removed));
+        release.countDown();
+        assertTrue(done.await(1, TimeUnit.MINUTES));
+        assertFalse(removedRan.get());
+    }
+
+    @Test
+    public void workStealing() throws ExecutionException {
+        try {
+            assertTrue(workStealing.submit(() -> Thread.currentThread().getName()).get().startsWith("cpu-"));
+        } catch (final InterruptedException e) {
+            Thread.interrupted();
+            fail();
+        }
+        assertEquals(2, ForkJoinPool.class.cast(manager.getOrCreatePool("cpu")).getParallelism());
+    }
+
+    @Test
+    public void virtual() throws ExecutionException {
+        assumeTrue("virtual threads require java 21", hasVirtualThreads());
+        try {
+            assertTrue(manager.getOrCreatePool("virtual").submit(() -> Thread.currentThread().getName()).get().startsWith("virtual-"));
+        } catch (final InterruptedException e) {
+            Thread.interrupted();
+            fail();
+        }
+    }
+
+    @Test
+    public void reconfigure() {
+        final ThreadPoolExecutor pool = ThreadPoolExecutor.class.cast(manager.getOrCreatePool("resized"));
+        manager.reconfigure("resized", 6, 8);
+        assertEquals(6, pool.getCorePoolSize());
+        assertEquals(8, pool.getMaximumPoolSize());
+        manager.reconfigure("resized", 1, 1);
+        assertEquals(1, pool.getCorePoolSize());
+        assertEquals(1, pool.getMaximumPoolSize());
+    }
+
+    @Test
+    public void autoTuning() throws InterruptedException {
+        final ThreadPoolExecutor pool = ThreadPoolExecutor.class.cast(manager.getOrCreatePool("tuned"));
+        final CountDownLatch done = new CountDownLatch(40);
+        for (int i = 0; i < 40; i++) {
+            pool.execute(() -> {
+                try {
+                    Thread.sleep(50);
+                } catch (final InterruptedException e) {
+                    Thread.interrupted();
+                }
+                done.countDown();
+            });
+        }
+        final long end = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (pool.getCorePoolSize() == 1 && System.nanoTime() < end) { // queue time > 10ms so it grows
+            Thread.sleep(10);
+        }
+        assertTrue(pool.getCorePoolSize() > 1);
+        assertTrue(pool.getCorePoolSize() <= 4);
+        assertTrue(done.await(1, TimeUnit.MINUTES));
+        while (pool.getCorePoolSize() > 1 && System.nanoTime() < end) { // idle so it shrinks back
+            Thread.sleep(10);
+        }
+        assertEquals(1, pool.getCorePoolSize());
+    }
+
+    @Test
+    public void tracing() throws Exception {
+        final TracedThreadPoolExecutor pool = TracedThreadPoolExecutor.class.cast(manager.getOrCreatePool("traced"));
+        final CountDownLatch done = new CountDownLatch(2);
+        final Runnable task = () -> {
+            try {
+                Thread.sleep(50);
+            } catch (final InterruptedException e) {
+                Thread.interrupted();
+            }
+            done.countDown();
+        };
+        pool.execute(task, "first");
+        pool.execute(task, "second"); // waits for the first one
+        assertTrue(done.await(1, TimeUnit.MINUTES));
+
+        final PoolMetrics poolMetrics = metrics.getPools().get("traced");
+        final long end = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (poolMetrics.getExecutionTime().getCount() < 2 && System.nanoTime() < end) { // recorded after the task
+            Thread.sleep(10);
+        }
+        assertEquals(2, poolMetrics.getQueueTime().getCount());
+        assertTrue(poolMetrics.getQueueTimeMax() >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertTrue(poolMetrics.getExecutionTimeMax() >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertEquals(2, poolMetrics.getSlowTaskCount());
+        assertTrue(poolMetrics.getSlowTasks()[0].startsWith("second queued "));
+    }
+
+    @Test
+    public void fanOut() throws InterruptedException {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        try (final FanOut<Integer> scope = manager.fanOut("fanout", 2)) {
+            for (int i = 0; i < 6; i++) {
+                final int value = i;
+                scope.fork(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    Thread.sleep(10);
+                    running.decrementAndGet();
+                    return value;
+                });
+            }
+            assertEquals(asList(0, 1, 2, 3, 4, 5), scope.join());
+        }
+        assertEquals(2, maxRunning.get());
+
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        try (final FanOut<Integer> scope = manager.fanOut("fanout", 0)) {
+            scope.fork(() -> {
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                } catch (final InterruptedException e) {
+                    cancelled.set(true);
+                    throw e;
+                }
+                return 1;
+            });
+            scope.fork(() -> {
+                throw new IllegalArgumentException("failed");
+            });
+            scope.join();
+            fail();
+        } catch (final IllegalArgumentException iae) {
+            assertEquals("failed", iae.getMessage());
+        }
+        assertTrue(cancelled.get()); // the scope waited for the sibling
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CompletableFuture<Integer> discarded;
+        try (final FanOut<Integer> scope = manager.fanOut("discarding", 0)) {
+            scope.fork(() -> {
+                started.countDown();
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                return 1;
+            });
+            assertTrue(started.await(1, TimeUnit.MINUTES));
+            scope.fork(() -> 2); // queued
+            discarded = scope.fork(() -> 3); // silently dropped by the pool, close() must not wait for it
+        }
+        assertTrue(discarded.isCancelled());
+    }
+
+    private static boolean hasVirtualThreads() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (final NoSuchMethodException e) {
+            return false;
+        }
+    }
+
     @Dependent
     public static class Registration {
         public void register(@Observes final ThreadPoolManager mgr) {
             mgr.register("test").withMax(4).withCore(2).add();
+            mgr.register("virtual").withVirtualThreads().withMaxConcurrency(2).add();
+            mgr.register("cpu").withWorkStealing(2).add();
+            mgr.register("bounded").withCore(1).withMax(1).withQueueCapacity(2)
+                .withRejectedExecutionHandler(BackPressure.callerRuns()).add();
+            mgr.register("dropping").withCore(1).withMax(1).withQueueCapacity(2)
+                .withRejectedExecutionHandler(BackPressure.dropOldest()).add();
+            mgr.register("blocking").withCore(1).withMax(1).withQueueCapacity(2)
+                .withRejectedExecutionHandler(BackPressure.block(200, TimeUnit.MILLISECONDS)).add();
+            mgr.register("resized").withCore(2).withMax(4).add();
+            mgr.register("tuned").withCore(1).withMax(1).withQueueCapacity(100)
+                .withAutoTuning(1, 4, 10, 50, TimeUnit.MILLISECONDS).add();
+            mgr.register("fanout").withCore(4).withMax(4).add();
+            mgr.register("discarding").withCore(1).withMax(1).withQueueCapacity(1)
+                .withRejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy()).add();
+            mgr.register("traced").withCore(1).withMax(1).withTracing(20, TimeUnit.MILLISECONDS).add();
         }
     }
 }